@@ -0,0 +1,93 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark runner for the JVM benchmarks. A body is run for a few
+ * warm up rounds first, then the median time of the measured rounds is
+ * reported per operation. Bytes allocated by the measured rounds are
+ * reported too if the JVM can count them.
+ */
+public final class Bench {
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 11;
+
+	/**
+	 * The code to measure.
+	 */
+	public interface Body {
+		/**
+		 * Run one round.
+		 *
+		 * @return number of operations done in the round
+		 */
+		int run();
+	}
+
+	private Bench() {
+	}
+
+	/**
+	 * Run and print a benchmark.
+	 *
+	 * @return median nanoseconds per operation
+	 */
+	public static double run(String name, Body body) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			body.run();
+
+		final double[] nanos = new double[ROUNDS];
+		long operations = 0;
+		final long allocatedBefore = allocatedBytes();
+		for (int i = 0; i < ROUNDS; i++) {
+			final long start = System.nanoTime();
+			final int ops = body.run();
+			nanos[i] = (double) (System.nanoTime() - start) / ops;
+			operations += ops;
+		}
+		final long allocated = allocatedBytes() - allocatedBefore;
+		Arrays.sort(nanos);
+		final double median = nanos[ROUNDS / 2];
+
+		System.out.println(String.format("%-40s %10.1f ns/op", name, median)
+				+ (allocatedBefore >= 0 ? String.format("  %.2f bytes/op",
+						(double) allocated / operations) : ""));
+		return median;
+	}
+
+	/**
+	 * @return bytes allocated by the current thread, -1 if not supported
+	 */
+	private static long allocatedBytes() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			final com.sun.management.ThreadMXBean sun =
+					(com.sun.management.ThreadMXBean) bean;
+			if (sun.isThreadAllocatedMemorySupported())
+				return sun.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+		}
+		return -1;
+	}
+}
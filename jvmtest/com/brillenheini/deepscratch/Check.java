@@ -0,0 +1,48 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch;
+
+/**
+ * Assertions for the JVM tests. A failed check throws an
+ * {@link AssertionError}, which ends the test with a stack trace and a non
+ * zero exit code.
+ */
+public final class Check {
+	private Check() {
+	}
+
+	public static void isTrue(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	public static void equal(long expected, long actual, String message) {
+		if (expected != actual)
+			throw new AssertionError(message + ": expected " + expected
+					+ " but was " + actual);
+	}
+
+	public static void near(double expected, double actual,
+			double tolerance, String message) {
+		if (!(Math.abs(expected - actual) <= tolerance))
+			throw new AssertionError(message + ": expected " + expected
+					+ " +- " + tolerance + " but was " + actual);
+	}
+}
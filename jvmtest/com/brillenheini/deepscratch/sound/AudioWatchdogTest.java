@@ -0,0 +1,126 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import com.brillenheini.deepscratch.Check;
+
+/**
+ * Late blocks, underruns and the worst blocks of {@link AudioWatchdog}, with
+ * block times made up instead of measured.
+ */
+public final class AudioWatchdogTest {
+	private static final long MS = 1000000;
+	/** Playback time of a block of 256 frames at 44.1kHz. */
+	private static final long DEADLINE = 5805 * 1000;
+	private static final long BUFFERED = 4 * DEADLINE;
+
+	public static void main(String[] args) {
+		lateBlocks();
+		underruns();
+		worstBlocks();
+		writeErrors();
+		System.out.println("ok");
+	}
+
+	private static void lateBlocks() {
+		final AudioWatchdog watchdog = new AudioWatchdog();
+		long time = System.nanoTime();
+		watchdog.endBlock(time, time + 1 * MS, DEADLINE);
+		watchdog.endBlock(time, time + 7 * MS, DEADLINE);
+		Check.equal(2, watchdog.getBlocks(), "blocks");
+		Check.equal(1, watchdog.getLateBlocks(), "late blocks");
+		Check.equal(0, watchdog.getUnderruns(), "no writes, no underruns");
+	}
+
+	/**
+	 * Fast blocks with a long pause between two writes make an underrun, a
+	 * pause of the output does not.
+	 */
+	private static void underruns() {
+		final AudioWatchdog watchdog = new AudioWatchdog();
+		long time = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			watchdog.endBlock(time, time + MS / 100, DEADLINE);
+			time += DEADLINE;
+			watchdog.blockWritten(time, BUFFERED);
+		}
+		Check.equal(0, watchdog.getUnderruns(), "paced by writes");
+
+		// Preempted after the write
+		time += BUFFERED + MS;
+		watchdog.endBlock(time, time + MS / 100, DEADLINE);
+		watchdog.blockWritten(time + DEADLINE, BUFFERED);
+		Check.equal(1, watchdog.getUnderruns(), "preempted");
+		Check.equal(0, watchdog.getLateBlocks(), "render time fine");
+
+		watchdog.outputStopped();
+		time += 2000 * MS;
+		watchdog.endBlock(time, time + MS / 100, DEADLINE);
+		Check.equal(1, watchdog.getUnderruns(), "after a pause");
+	}
+
+	/**
+	 * A bad block is still among the worst blocks after the history has been
+	 * overwritten many times.
+	 */
+	private static void worstBlocks() {
+		final AudioWatchdog watchdog = new AudioWatchdog();
+		long time = System.nanoTime() - 20000 * MS;
+		watchdog.blockWritten(time, BUFFERED);
+		time += 50 * MS;
+		watchdog.endBlock(time, time + MS / 100, DEADLINE);
+		for (int i = 0; i < 10000; i++) {
+			watchdog.blockWritten(time, BUFFERED);
+			time += MS;
+			watchdog.endBlock(time, time + MS / 100, DEADLINE);
+		}
+
+		final StringWriter out = new StringWriter();
+		watchdog.dump("", new PrintWriter(out));
+		final String dump = out.toString();
+		final int worst = dump.indexOf("Worst blocks:");
+		final int recent = dump.indexOf("Worst recent blocks:");
+		final int stutter = dump.indexOf("gap 50010us");
+		Check.isTrue(worst >= 0 && recent > worst, dump);
+		Check.isTrue(stutter > worst && stutter < recent, dump);
+		Check.isTrue(dump.indexOf("gap 50010us", recent) < 0, dump);
+	}
+
+	/**
+	 * Failed writes and restarts are counted and shown with the last error.
+	 */
+	private static void writeErrors() {
+		final AudioWatchdog watchdog = new AudioWatchdog();
+		watchdog.writeFailed(-3);
+		watchdog.trackRestarted();
+		watchdog.writeFailed(0);
+		Check.equal(2, watchdog.getWriteErrors(), "write errors");
+		Check.equal(1, watchdog.getTrackRestarts(), "restarts");
+
+		final StringWriter out = new StringWriter();
+		watchdog.dump("", new PrintWriter(out));
+		final String dump = out.toString();
+		Check.isTrue(dump.indexOf("writeErrors=2 lastError=0 restarts=1") >= 0,
+				dump);
+	}
+}
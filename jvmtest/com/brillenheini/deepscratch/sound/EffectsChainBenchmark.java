@@ -0,0 +1,82 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.util.Random;
+
+import com.brillenheini.deepscratch.Bench;
+
+/**
+ * Cost of one block through the {@link EffectsChain} with the filter and the
+ * echo enabled, mono and stereo at 44.1 and 48 kHz. The filter amount changes
+ * every block like it does when tied to the scratch velocity. Each block is
+ * copied from a noise buffer first, so the signal does not decay into
+ * denormals.
+ */
+public final class EffectsChainBenchmark {
+	/** Block size of the render loop, AudioEngine.BLOCK_FRAMES. */
+	private static final int BLOCK = 256;
+	private static final int BLOCKS = 2000;
+
+	public static void main(String[] args) {
+		for (int rate : new int[] { 44100, 48000 })
+			for (int channels = 1; channels <= 2; channels++)
+				run(rate, channels);
+	}
+
+	private static void run(int rate, int channels) {
+		final EffectsChain chain = new EffectsChain(rate, channels);
+		chain.getFilter().setMode(BiquadFilter.LOW_PASS);
+		chain.getFilter().setQ(2);
+		chain.getFilter().setEnabled(true);
+		chain.getEcho().setDelay(250);
+		chain.getEcho().setFeedback(0.5f);
+		chain.getEcho().setMix(0.4f);
+		chain.getEcho().setEnabled(true);
+
+		final Random random = new Random(1);
+		final float[] noise = new float[BLOCK * channels * 16];
+		for (int i = 0; i < noise.length; i++)
+			noise[i] = random.nextFloat() * 2 - 1;
+		final float[] block = new float[BLOCK * channels];
+
+		final double nanos = Bench.run(
+				"EffectsChain block, " + (channels == 1 ? "mono" : "stereo") + " "
+						+ rate + " Hz", new Bench.Body() {
+					private int mBlock;
+
+					@Override
+					public int run() {
+						for (int i = 0; i < BLOCKS; i++) {
+							final int b = mBlock++;
+							System.arraycopy(noise, (b & 15) * block.length,
+									block, 0, block.length);
+							chain.setFilterAmount((b & 63) / 63f);
+							chain.process(block, 0, BLOCK);
+						}
+						return BLOCKS;
+					}
+				});
+		final double deadline = 1e9 * BLOCK / rate;
+		System.out.println(String.format(
+				"  %.3f%% of the %.0f us block deadline", 100 * nanos
+						/ deadline, deadline / 1000));
+	}
+}
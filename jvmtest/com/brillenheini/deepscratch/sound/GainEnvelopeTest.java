@@ -0,0 +1,152 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.util.Arrays;
+
+import com.brillenheini.deepscratch.Check;
+
+/**
+ * Offline timing test of {@link GainEnvelope}: a constant signal is
+ * processed in blocks of the render loop and every edge has to start at the
+ * frame it was posted for and reach its level after the ramp.
+ */
+public final class GainEnvelopeTest {
+	private static final int RATE = 44100;
+	private static final int RAMP = RATE * 2 / 1000;
+	/** Block size of the render loop, AudioEngine.BLOCK_FRAMES. */
+	private static final int BLOCK = 256;
+
+	/**
+	 * Cut and open frames of a transformer scratch across block borders, at
+	 * least one ramp apart.
+	 */
+	private static final long[] EDGES = { 100, 300, 511, 767, 856, 1024,
+			1200, 1300, 2047, 2200, 4000 };
+
+	public static void main(String[] args) {
+		edges(1);
+		edges(2);
+		retrigger();
+		late();
+		skip();
+		System.out.println("ok");
+	}
+
+	private static void edges(int channels) {
+		final GainEnvelope envelope = new GainEnvelope(RATE);
+		final float[] levels = new float[EDGES.length];
+		for (int i = 0; i < EDGES.length; i++) {
+			levels[i] = i % 2 == 0 ? 0 : 1;
+			Check.isTrue(envelope.post(EDGES[i], levels[i]), "post");
+		}
+
+		final int frames = 20 * BLOCK;
+		final float[] out = new float[frames * channels];
+		Arrays.fill(out, 1);
+		for (int frame = 0; frame < frames; frame += BLOCK)
+			envelope.process(out, frame * channels, BLOCK, channels);
+		Check.equal(frames, envelope.getPosition(), "position");
+		Check.equal(0, envelope.getLateEvents(), "late events");
+
+		float level = 1;
+		int edge = 0;
+		for (int frame = 0; frame < frames; frame++) {
+			if (edge < EDGES.length && frame == EDGES[edge])
+				edge++;
+			final float expected;
+			if (edge == 0) {
+				expected = 1;
+			} else {
+				final float from = edge > 1 ? levels[edge - 2] : 1;
+				final float to = levels[edge - 1];
+				final long ramped = frame - EDGES[edge - 1] + 1;
+				expected = ramped >= RAMP ? to : from + (to - from) * ramped
+						/ RAMP;
+				level = to;
+			}
+			for (int c = 0; c < channels; c++)
+				Check.near(expected, out[frame * channels + c], 1e-4,
+						"frame " + frame + " channel " + c);
+		}
+		Check.equal(EDGES.length, edge, "edges");
+		Check.near(0, level, 0, "last level");
+	}
+
+	/**
+	 * An edge during the ramp of the previous one ramps from the current
+	 * gain.
+	 */
+	private static void retrigger() {
+		final GainEnvelope envelope = new GainEnvelope(RATE);
+		envelope.off(10);
+		envelope.on(200);
+		envelope.off(201);
+		final float[] out = new float[2 * BLOCK];
+		Arrays.fill(out, 1);
+		envelope.process(out, 0, BLOCK, 1);
+		envelope.process(out, BLOCK, BLOCK, 1);
+		final float opened = 1f / RAMP;
+		Check.near(opened, out[200], 1e-6, "open");
+		Check.near(opened - opened / RAMP, out[201], 1e-6, "cut from open");
+		Check.near(0, out[201 + RAMP - 1], 1e-6, "cut");
+	}
+
+	/**
+	 * An event for a frame that has been processed starts at the next block
+	 * and counts as late.
+	 */
+	private static void late() {
+		final GainEnvelope envelope = new GainEnvelope(RATE);
+		final float[] out = new float[BLOCK];
+		envelope.process(out, 0, BLOCK, 1);
+		envelope.off(100);
+
+		Arrays.fill(out, 1);
+		envelope.process(out, 0, BLOCK, 1);
+		Check.equal(1, envelope.getLateEvents(), "late events");
+		Check.near(1 - 1f / RAMP, out[0], 1e-4, "ramp starts at block");
+		Check.near(0, out[RAMP - 1], 1e-4, "ramp ends");
+	}
+
+	/**
+	 * Events in skipped frames apply at once, the next block starts at the
+	 * skipped position without a ramp.
+	 */
+	private static void skip() {
+		final GainEnvelope envelope = new GainEnvelope(RATE);
+		envelope.off(1000);
+		envelope.on(50000);
+		envelope.skip(44100);
+		Check.equal(44100, envelope.getPosition(), "position");
+
+		final float[] out = new float[BLOCK];
+		Arrays.fill(out, 1);
+		envelope.process(out, 0, BLOCK, 1);
+		Check.equal(0, envelope.getLateEvents(), "late events");
+		for (int i = 0; i < BLOCK; i++)
+			Check.near(0, out[i], 0, "cut after skip " + i);
+
+		envelope.skip(50000 - 44100 - BLOCK);
+		Arrays.fill(out, 1);
+		envelope.process(out, 0, BLOCK, 1);
+		Check.near(1f / RAMP, out[0], 1e-4, "open at skipped position");
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.brillenheini.deepscratch.Check;
+
+/**
+ * Order of the triggers coming out of {@link TriggerQueue}, compared against
+ * a sorted list, and the behaviour of a full ring and heap.
+ */
+public final class TriggerQueueTest {
+	private static final PcmData DATA = PcmData.create(new short[16], 16, 1,
+			44100, true, false);
+
+	public static void main(String[] args) {
+		randomOrder();
+		sameFrame();
+		full();
+		System.out.println("ok");
+	}
+
+	/**
+	 * Random posts and pops, the step carries the post number.
+	 */
+	private static void randomOrder() {
+		final Random random = new Random(1);
+		final TriggerQueue queue = new TriggerQueue();
+		final List<long[]> expected = new ArrayList<long[]>();
+		final Comparator<long[]> order = new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				if (a[0] != b[0])
+					return a[0] < b[0] ? -1 : 1;
+				return a[1] < b[1] ? -1 : a[1] == b[1] ? 0 : 1;
+			}
+		};
+		int posted = 0;
+		for (int round = 0; round < 10000; round++) {
+			final int posts = random.nextInt(20);
+			for (int i = 0; i < posts && expected.size() < 64; i++) {
+				final long frame = random.nextInt(50);
+				Check.isTrue(queue.post(DATA, posted, frame), "post");
+				expected.add(new long[] { frame, posted++ });
+			}
+			queue.drain();
+			Collections.sort(expected, order);
+
+			final int pops = random.nextInt(20);
+			for (int i = 0; i < pops && !expected.isEmpty(); i++) {
+				final long[] next = expected.remove(0);
+				Check.equal(next[0], queue.peekFrame(), "frame");
+				Check.equal(next[1], (long) queue.peekStep(), "post number");
+				Check.isTrue(queue.peekData() == DATA, "data");
+				queue.pop();
+			}
+			Check.isTrue(queue.isEmpty() == expected.isEmpty(), "isEmpty");
+		}
+		Check.isTrue(posted > 50000, "posted " + posted);
+	}
+
+	/**
+	 * Triggers for the same frame come out in the order they were posted,
+	 * even when posted across several drains.
+	 */
+	private static void sameFrame() {
+		final TriggerQueue queue = new TriggerQueue();
+		for (int i = 0; i < 40; i++) {
+			queue.post(DATA, i, i % 2 == 0 ? 100 : 50);
+			if (i % 7 == 0)
+				queue.drain();
+		}
+		queue.drain();
+		for (int i = 1; i < 40; i += 2) {
+			Check.equal(50, queue.peekFrame(), "frame");
+			Check.equal(i, (long) queue.peekStep(), "odd post");
+			queue.pop();
+		}
+		for (int i = 0; i < 40; i += 2) {
+			Check.equal(100, queue.peekFrame(), "frame");
+			Check.equal(i, (long) queue.peekStep(), "even post");
+			queue.pop();
+		}
+		Check.isTrue(queue.isEmpty(), "empty");
+		Check.equal(Long.MAX_VALUE, queue.peekFrame(), "empty frame");
+	}
+
+	/**
+	 * A full ring drops posts, triggers that do not fit into the heap wait in
+	 * the ring and still come out in order.
+	 */
+	private static void full() {
+		final TriggerQueue queue = new TriggerQueue();
+		for (int i = 0; i < 64; i++)
+			Check.isTrue(queue.post(DATA, i, 1000 - i), "post " + i);
+		Check.isTrue(!queue.post(DATA, 64, 0), "post to full ring");
+		queue.drain();
+		for (int i = 0; i < 64; i++)
+			Check.isTrue(queue.post(DATA, 100 + i, 2000 + i), "post " + i);
+		queue.drain();
+		Check.isTrue(!queue.isEmpty(), "not empty");
+
+		for (int i = 63; i >= 0; i--) {
+			Check.equal(1000 - i, queue.peekFrame(), "first heap");
+			queue.pop();
+			queue.drain();
+		}
+		for (int i = 0; i < 64; i++) {
+			Check.equal(2000 + i, queue.peekFrame(), "from ring");
+			queue.pop();
+		}
+		Check.isTrue(queue.isEmpty(), "empty");
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import com.brillenheini.deepscratch.Check;
+
+/**
+ * Predictions of {@link MotionPredictor} and its error metric against the
+ * error without prediction.
+ */
+public final class MotionPredictorTest {
+	public static void main(String[] args) {
+		steady();
+		reversal();
+		System.out.println("ok");
+	}
+
+	/**
+	 * A steady movement is predicted exactly, without prediction the error
+	 * is the distance between two samples.
+	 */
+	private static void steady() {
+		final MotionPredictor predictor = new MotionPredictor();
+		for (int i = 0; i < 50; i++) {
+			predictor.add(i * 8, 400 - 6 * i);
+			final float predicted = predictor.predict(i * 8 + 16);
+			if (i >= 2)
+				Check.near(400 - 6 * i - 12, predicted, 1e-3, "predicted");
+		}
+		Check.near(0, predictor.getMeanError(), 1e-3, "error");
+		Check.near(6, predictor.getMeanBaselineError(), 1e-3, "baseline");
+	}
+
+	/**
+	 * No prediction is made when the finger reverses, the suppressed
+	 * prediction is not measured.
+	 */
+	private static void reversal() {
+		final MotionPredictor predictor = new MotionPredictor();
+		final float[] positions = { 400, 390, 380, 370, 375 };
+		for (int i = 0; i < positions.length; i++) {
+			predictor.add(i * 8, positions[i]);
+			final float predicted = predictor.predict(i * 8 + 16);
+			if (i == 4)
+				Check.near(positions[i], predicted, 0, "suppressed");
+		}
+		// Measured at 370 and 375 after predicting 370 and 360
+		final float error = predictor.getMeanError();
+		final float baseline = predictor.getMeanBaselineError();
+		predictor.add(40, 380);
+		Check.near(7.5, error, 1e-3, "error");
+		Check.near(7.5, baseline, 1e-3, "baseline");
+		Check.near(error, predictor.getMeanError(), 0, "not measured");
+		Check.near(baseline, predictor.getMeanBaselineError(), 0,
+				"baseline not measured");
+	}
+}
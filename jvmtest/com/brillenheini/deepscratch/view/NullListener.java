@@ -0,0 +1,57 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+/**
+ * Gesture listener that ignores all events, tests override what they need.
+ */
+class NullListener implements ScratchGesture.Listener {
+	@Override
+	public void onScratchStart() {
+	}
+
+	@Override
+	public void onScratchEnd() {
+	}
+
+	@Override
+	public void onSpin(float dy, float offset, float x) {
+	}
+
+	@Override
+	public void onForward(float velocity, long time) {
+	}
+
+	@Override
+	public void onBackward(float velocity, long time) {
+	}
+
+	@Override
+	public void onSample(long time) {
+	}
+
+	@Override
+	public void onFader(float level, long time) {
+	}
+
+	@Override
+	public void onPattern(int pattern, int strokes) {
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.brillenheini.deepscratch.Bench;
+import com.brillenheini.deepscratch.time.VirtualScheduler;
+
+/**
+ * Cost of a touch event with the pattern classifier, replaying all touch
+ * traces in <code>jvmtest/traces</code> through {@link ScratchGesture} over
+ * and over.
+ */
+public final class ScratchClassifierBenchmark {
+	private static final int REPLAYS = 200;
+
+	public static void main(String[] args) throws IOException {
+		final File[] files = ScratchClassifierReplayTest.TRACES.listFiles();
+		Arrays.sort(files);
+		int count = 0;
+		final TouchTrace[] traces = new TouchTrace[files.length];
+		for (File file : files)
+			if (file.getName().endsWith(".trace"))
+				traces[count++] = TouchTrace.read(file);
+		final int size = count;
+
+		final VirtualScheduler scheduler = new VirtualScheduler(0);
+		final ScratchGesture gesture = new ScratchGesture(scheduler,
+				new NullListener(),
+				ScratchClassifierReplayTest.SCRATCH_DISTANCE, 160, 120);
+		Bench.run("Classifier replay, " + size + " traces",
+				new Bench.Body() {
+					@Override
+					public int run() {
+						int events = 0;
+						for (int r = 0; r < REPLAYS; r++) {
+							for (int i = 0; i < size; i++) {
+								final TouchTrace trace = traces[i];
+								final long offset = scheduler.now() + 100;
+								trace.replay(gesture, scheduler, offset);
+								events += trace.size();
+							}
+						}
+						return events;
+					}
+				});
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.brillenheini.deepscratch.Check;
+import com.brillenheini.deepscratch.time.VirtualScheduler;
+
+/**
+ * Replays the touch traces in <code>jvmtest/traces</code> through
+ * {@link ScratchGesture} and checks the patterns {@link ScratchClassifier}
+ * recognizes in each.
+ */
+public final class ScratchClassifierReplayTest {
+	static final File TRACES = new File("jvmtest/traces");
+	/** Scratch distance the traces are drawn for (pixels). */
+	static final int SCRATCH_DISTANCE = 100;
+
+	/**
+	 * Pattern events per trace, counts of none, baby, scribble, tear and
+	 * crab. A pattern is reported again for every further stroke of a run.
+	 */
+	private static final Object[][] EXPECTED = {
+			{ "baby", new int[] { 0, 8, 0, 0, 0 } },
+			{ "scribble", new int[] { 0, 0, 33, 0, 0 } },
+			{ "tear", new int[] { 0, 0, 0, 3, 0 } },
+			{ "crab", new int[] { 0, 0, 0, 0, 2 } },
+			{ "drag", new int[] { 0, 0, 0, 0, 0 } } };
+
+	public static void main(String[] args) throws IOException {
+		for (Object[] expected : EXPECTED) {
+			final String name = (String) expected[0];
+			final int[] counts = (int[]) expected[1];
+			final int[] found = replay(TouchTrace.read(new File(TRACES, name
+					+ ".trace")));
+			for (int p = 0; p < counts.length; p++)
+				Check.equal(counts[p], found[p], name + ": "
+						+ ScratchClassifier.getPatternName(p));
+		}
+		System.out.println("ok");
+	}
+
+	/**
+	 * @return number of pattern events per pattern
+	 */
+	private static int[] replay(TouchTrace trace) {
+		final int[] found = new int[5];
+		final VirtualScheduler scheduler = new VirtualScheduler(0);
+		final ScratchGesture gesture = new ScratchGesture(scheduler,
+				new NullListener() {
+					@Override
+					public void onPattern(int pattern, int strokes) {
+						found[pattern]++;
+					}
+				}, SCRATCH_DISTANCE, 160, 120);
+		trace.replay(gesture, scheduler, 0);
+		return found;
+	}
+}
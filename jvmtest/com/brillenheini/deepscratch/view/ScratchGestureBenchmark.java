@@ -0,0 +1,62 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import com.brillenheini.deepscratch.Bench;
+import com.brillenheini.deepscratch.time.VirtualScheduler;
+
+/**
+ * Cost of a move event with ten fingers on the record: one scratch finger,
+ * the fader finger and eight ignored ones, as ScratchView passes them in one
+ * pass over the pointers of the event.
+ */
+public final class ScratchGestureBenchmark {
+	private static final int POINTERS = 10;
+	private static final int EVENTS = 100000;
+
+	public static void main(String[] args) {
+		final VirtualScheduler scheduler = new VirtualScheduler(0);
+		final ScratchGesture gesture = new ScratchGesture(scheduler,
+				new NullListener(), 100, 160, 120);
+		for (int id = 0; id < POINTERS; id++)
+			gesture.down(id, 100 + 50 * id, 400, scheduler.now());
+
+		Bench.run("ScratchGesture move, " + POINTERS + " pointers",
+				new Bench.Body() {
+					private int mEvent;
+
+					@Override
+					public int run() {
+						for (int i = 0; i < EVENTS; i++) {
+							scheduler.advanceBy(8);
+							final long time = scheduler.now();
+							// Back and forth strokes of 200 pixels
+							final int phase = mEvent++ % 50;
+							final float y = 400 + (phase < 25 ? phase
+									: 50 - phase) * 8;
+							for (int id = 0; id < POINTERS; id++)
+								gesture.move(id, 100 + 50 * id + (i & 7), y,
+										time);
+						}
+						return EVENTS;
+					}
+				});
+	}
+}
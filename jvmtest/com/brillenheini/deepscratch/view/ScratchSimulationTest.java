@@ -0,0 +1,335 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.brillenheini.deepscratch.Check;
+import com.brillenheini.deepscratch.time.VirtualScheduler;
+
+/**
+ * Deterministic simulation of the record and the gesture timing on a
+ * {@link VirtualScheduler}. An hour of random scratching with a fader finger
+ * is run through {@link ScratchGesture} and a {@link Turntable} wired like
+ * ScratchView and RecordSpinner wire them. Every turn and trigger is recorded
+ * with its virtual time, and two runs with the same seed have to produce the
+ * same bytes.
+ */
+public final class ScratchSimulationTest {
+	private static final long DURATION = 60 * 60 * 1000;
+	/** Pivot of the record on the x-axis, like RecordSpinner. */
+	private static final float PIVOT_X = 360;
+
+	public static void main(String[] args) throws IOException {
+		pullBack();
+		liftAfterForward();
+		stopWithoutMove();
+		highPointerId();
+		triggerVelocity();
+
+		final long start = System.nanoTime();
+		final Simulation first = new Simulation();
+		first.run(42);
+		final long millis = (System.nanoTime() - start) / 1000000;
+		final Simulation second = new Simulation();
+		second.run(42);
+		final Simulation other = new Simulation();
+		other.run(43);
+
+		Check.isTrue(Arrays.equals(first.getRecord(), second.getRecord()),
+				"same seed, same sequence");
+		Check.isTrue(!Arrays.equals(first.getRecord(), other.getRecord()),
+				"other seed, other sequence");
+		Check.isTrue(first.mForward > 1000 && first.mBackward > 1000,
+				"triggers " + first.mForward + "/" + first.mBackward);
+		Check.isTrue(first.mPullBacks > 100, "pull backs " + first.mPullBacks);
+		Check.isTrue(first.mCuts > 100, "fader cuts " + first.mCuts);
+		System.out.println(String.format(
+				"1 h simulated in %d ms: %d turns, %d pull backs, "
+						+ "%d/%d forward/backward, %d cuts, %d bytes",
+				millis, first.mTurns, first.mPullBacks, first.mForward,
+				first.mBackward, first.mCuts, first.getRecord().length));
+		System.out.println("ok");
+	}
+
+	/**
+	 * After a backward spin the record keeps turning backwards with a
+	 * decreasing angle, then forwards again.
+	 */
+	private static void pullBack() {
+		final VirtualScheduler scheduler = new VirtualScheduler(0);
+		final float[] turns = new float[5];
+		final Turntable turntable = new Turntable(scheduler,
+				new Turntable.Listener() {
+					private int mCount;
+
+					@Override
+					public void onTurn(float degrees) {
+						if (mCount < turns.length)
+							turns[mCount++] = degrees;
+					}
+				});
+		turntable.turn(-20);
+		turntable.start();
+		scheduler.advanceBy(4 * Turntable.ROTATION_DELAY - 1);
+		Check.near(0, turns[4], 0, "fourth turn not yet due");
+		scheduler.advanceBy(1);
+		final float[] expected = { -20, -8, -3, -1, Turntable.ROTATION_ANGLE };
+		for (int i = 0; i < expected.length; i++)
+			Check.near(expected[i], turns[i], 0, "turn " + i);
+	}
+
+	/**
+	 * Taking back the prediction when the finger lifts after a forward
+	 * stroke must not pull the record back, it turns forwards right away.
+	 */
+	private static void liftAfterForward() throws IOException {
+		final Simulation simulation = new Simulation();
+		final VirtualScheduler scheduler = simulation.mScheduler;
+		final ScratchGesture gesture = simulation.mGesture;
+		gesture.down(0, 100, 400, scheduler.now());
+		for (int i = 1; i <= 20; i++) {
+			scheduler.advanceBy(8);
+			gesture.move(0, 100, 400 - 6 * i, scheduler.now());
+		}
+		Check.isTrue(simulation.mPredictedAngle != 0, "prediction applied");
+		gesture.up(0, scheduler.now());
+		Check.near(0, simulation.mPredictedAngle, 0, "prediction taken back");
+
+		final int turns = simulation.mTurns;
+		scheduler.advanceBy(Turntable.ROTATION_DELAY);
+		Check.equal(turns + 1, simulation.mTurns, "one free turn");
+		Check.near(Turntable.ROTATION_ANGLE, simulation.mLastTurn, 0,
+				"free turn");
+	}
+
+	/**
+	 * The prediction is taken back when the finger stops and no move follows,
+	 * not only when it lifts.
+	 */
+	private static void stopWithoutMove() throws IOException {
+		final Simulation simulation = new Simulation();
+		final VirtualScheduler scheduler = simulation.mScheduler;
+		final ScratchGesture gesture = simulation.mGesture;
+		gesture.down(0, 100, 400, scheduler.now());
+		for (int i = 1; i <= 20; i++) {
+			scheduler.advanceBy(8);
+			gesture.move(0, 100, 400 - 6 * i, scheduler.now());
+		}
+		scheduler.advanceBy(16);
+		Check.isTrue(simulation.mPredictedAngle != 0, "still predicting");
+		scheduler.advanceBy(8);
+		Check.near(0, simulation.mPredictedAngle, 0, "taken back");
+		Check.equal(0, scheduler.getPending(), "nothing scheduled");
+	}
+
+	/**
+	 * Android pointer IDs go up to 31, any of them can be the scratch finger.
+	 */
+	private static void highPointerId() throws IOException {
+		final Simulation simulation = new Simulation();
+		final VirtualScheduler scheduler = simulation.mScheduler;
+		final ScratchGesture gesture = simulation.mGesture;
+		gesture.down(31, 100, 400, scheduler.now());
+		Check.isTrue(simulation.mScratching, "scratch finger");
+		for (int i = 1; i <= 20; i++) {
+			scheduler.advanceBy(8);
+			gesture.move(31, 100, 400 - 6 * i, scheduler.now());
+		}
+		Check.equal(1, simulation.mForward, "forward");
+		gesture.upAll(scheduler.now());
+		Check.isTrue(!simulation.mScratching, "lifted");
+	}
+
+	/**
+	 * A stroke plays at the move that passes the scratch distance, with the
+	 * velocity since the stroke started.
+	 */
+	private static void triggerVelocity() {
+		final VirtualScheduler scheduler = new VirtualScheduler(0);
+		final float[] velocity = new float[1];
+		final long[] time = new long[1];
+		final ScratchGesture gesture = new ScratchGesture(scheduler,
+				new NullListener() {
+					@Override
+					public void onForward(float v, long t) {
+						velocity[0] = v;
+						time[0] = scheduler.now();
+					}
+				}, 75, 120, 90);
+		gesture.down(0, 100, 400, scheduler.now());
+		for (int i = 1; i <= 10; i++) {
+			scheduler.advanceBy(10);
+			gesture.move(0, 100, 400 - 10 * i, scheduler.now());
+		}
+		Check.equal(80, time[0], "trigger time");
+		Check.near(80 / 0.08f, velocity[0], 0.01, "velocity");
+	}
+
+	/**
+	 * The record and the gesture with recording listeners. A run plays
+	 * scratch strokes of random length and speed with pauses between the
+	 * gestures, sometimes with a fader finger cutting the sound.
+	 */
+	private static final class Simulation implements ScratchGesture.Listener,
+			Turntable.Listener {
+		private final VirtualScheduler mScheduler = new VirtualScheduler(0);
+		private final Turntable mTurntable = new Turntable(mScheduler, this);
+		private final ScratchGesture mGesture = new ScratchGesture(mScheduler,
+				this, 75, 120, 90);
+		private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+		private final DataOutputStream mOut = new DataOutputStream(mBytes);
+
+		private boolean mScratching;
+		float mPredictedAngle;
+		float mLastTurn;
+		int mTurns;
+		int mPullBacks;
+		int mForward;
+		int mBackward;
+		int mCuts;
+
+		void run(long seed) throws IOException {
+			final Random random = new Random(seed);
+			mTurntable.start();
+			while (mScheduler.now() < DURATION) {
+				mScheduler.advanceBy(random.nextInt(500));
+				gesture(random);
+			}
+			mOut.flush();
+		}
+
+		byte[] getRecord() {
+			return mBytes.toByteArray();
+		}
+
+		private void gesture(Random random) {
+			final boolean fader = random.nextInt(4) == 0;
+			float x = 100 + random.nextInt(50);
+			float y = 300 + random.nextInt(200);
+			mGesture.down(0, x, y, mScheduler.now());
+
+			final int strokes = 1 + random.nextInt(8);
+			for (int s = 0; s < strokes; s++) {
+				final float dy = (s % 2 == 0 ? -1 : 1)
+						* (2 + random.nextInt(12));
+				final int moves = 4 + random.nextInt(20);
+				for (int m = 0; m < moves; m++) {
+					mScheduler.advanceBy(4 + random.nextInt(12));
+					x += random.nextInt(3) - 1;
+					y += dy;
+					mGesture.move(0, x, y, mScheduler.now());
+					if (fader && m % 3 == 0) {
+						if (m == 0)
+							mGesture.down(1, 600, 400, mScheduler.now());
+						else
+							mGesture.move(1, 600 + random.nextInt(120), 400,
+									mScheduler.now());
+					}
+				}
+				if (fader)
+					mGesture.up(1, mScheduler.now());
+			}
+			mGesture.upAll(mScheduler.now());
+		}
+
+		private void record(int kind, float value) {
+			try {
+				mOut.writeLong(mScheduler.now());
+				mOut.writeByte(kind);
+				mOut.writeFloat(value);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		@Override
+		public void onTurn(float degrees) {
+			if (!mScratching && degrees < 0)
+				mPullBacks++;
+			mTurns++;
+			mLastTurn = degrees;
+			record('t', degrees);
+		}
+
+		@Override
+		public void onScratchStart() {
+			mScratching = true;
+			mTurntable.stop();
+			record('s', 0);
+		}
+
+		@Override
+		public void onScratchEnd() {
+			mScratching = false;
+			mTurntable.start();
+			record('e', 0);
+		}
+
+		@Override
+		public void onSpin(float dy, float offset, float x) {
+			final float b = x - PIVOT_X;
+			if (dy != 0)
+				mTurntable.turn(angle(dy, b));
+			final float predicted = offset != 0 ? angle(offset, b) : 0;
+			if (predicted != mPredictedAngle) {
+				mTurntable.adjust(predicted - mPredictedAngle);
+				mPredictedAngle = predicted;
+			}
+		}
+
+		private static float angle(float a, float b) {
+			return (float) Math.toDegrees(Math.atan(a / b));
+		}
+
+		@Override
+		public void onForward(float velocity, long time) {
+			mForward++;
+			record('f', velocity);
+		}
+
+		@Override
+		public void onBackward(float velocity, long time) {
+			mBackward++;
+			record('b', velocity);
+		}
+
+		@Override
+		public void onSample(long time) {
+			record('p', 0);
+		}
+
+		@Override
+		public void onFader(float level, long time) {
+			if (level == 0)
+				mCuts++;
+			record('c', level);
+		}
+
+		@Override
+		public void onPattern(int pattern, int strokes) {
+			record('0' + pattern, strokes);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.brillenheini.deepscratch.time.VirtualScheduler;
+
+/**
+ * Recorded touch events for replaying through {@link ScratchGesture}. A trace
+ * is a text file with one event per line:
+ *
+ * <pre>
+ * time action pointer x y
+ * </pre>
+ *
+ * Time is in milliseconds, action is <code>down</code>, <code>move</code> or
+ * <code>up</code>, x and y are in pixels. Empty lines and lines starting with
+ * <code>#</code> are ignored. The events are held in arrays, so replaying
+ * allocates nothing.
+ */
+final class TouchTrace {
+	static final byte DOWN = 0;
+	static final byte MOVE = 1;
+	static final byte UP = 2;
+
+	private static final String[] ACTIONS = { "down", "move", "up" };
+
+	private final String mName;
+	private final long[] mTime;
+	private final byte[] mAction;
+	private final int[] mPointer;
+	private final float[] mX;
+	private final float[] mY;
+
+	TouchTrace(String name, long[] time, byte[] action, int[] pointer,
+			float[] x, float[] y) {
+		mName = name;
+		mTime = time;
+		mAction = action;
+		mPointer = pointer;
+		mX = x;
+		mY = y;
+	}
+
+	static TouchTrace read(File file) throws IOException {
+		final List<String[]> events = new ArrayList<String[]>();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				final String[] fields = line.split("\\s+");
+				if (fields.length != 5)
+					throw new IOException(file + ": bad event: " + line);
+				events.add(fields);
+			}
+		} finally {
+			in.close();
+		}
+
+		final int size = events.size();
+		final long[] time = new long[size];
+		final byte[] action = new byte[size];
+		final int[] pointer = new int[size];
+		final float[] x = new float[size];
+		final float[] y = new float[size];
+		for (int i = 0; i < size; i++) {
+			final String[] fields = events.get(i);
+			time[i] = Long.parseLong(fields[0]);
+			action[i] = parseAction(file, fields[1]);
+			pointer[i] = Integer.parseInt(fields[2]);
+			x[i] = Float.parseFloat(fields[3]);
+			y[i] = Float.parseFloat(fields[4]);
+		}
+		final String name = file.getName().replaceFirst("\\.trace$", "");
+		return new TouchTrace(name, time, action, pointer, x, y);
+	}
+
+	private static byte parseAction(File file, String action)
+			throws IOException {
+		for (byte a = 0; a < ACTIONS.length; a++)
+			if (ACTIONS[a].equals(action))
+				return a;
+		throw new IOException(file + ": bad action: " + action);
+	}
+
+	void write(PrintWriter writer) {
+		for (int i = 0; i < mTime.length; i++)
+			writer.println(mTime[i] + " " + ACTIONS[mAction[i]] + " "
+					+ mPointer[i] + " " + mX[i] + " " + mY[i]);
+	}
+
+	String getName() {
+		return mName;
+	}
+
+	int size() {
+		return mTime.length;
+	}
+
+	/**
+	 * @return time of the last event
+	 */
+	long getDuration() {
+		return mTime.length > 0 ? mTime[mTime.length - 1] : 0;
+	}
+
+	/**
+	 * Pass all events to a gesture, moving the clock to each event first.
+	 *
+	 * @param offset
+	 *            added to the event times, so a trace can be replayed again
+	 *            later on the same gesture
+	 */
+	void replay(ScratchGesture gesture, VirtualScheduler scheduler,
+			long offset) {
+		for (int i = 0; i < mTime.length; i++) {
+			final long time = mTime[i] + offset;
+			scheduler.advanceTo(time);
+			switch (mAction[i]) {
+			case DOWN:
+				gesture.down(mPointer[i], mX[i], mY[i], time);
+				break;
+			case MOVE:
+				gesture.move(mPointer[i], mX[i], mY[i], time);
+				break;
+			default:
+				gesture.up(mPointer[i], time);
+				break;
+			}
+		}
+	}
+}
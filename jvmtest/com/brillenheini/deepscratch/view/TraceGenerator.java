@@ -0,0 +1,200 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the synthetic touch traces in <code>jvmtest/traces</code>. The
+ * strokes follow the shape of each scratch pattern at a touch rate of 125Hz,
+ * with seeded noise of +-1.5 pixels on the scratch finger, so the traces are
+ * the same on every run.
+ * <p>
+ * Run with <code>jvmtest/run.sh TraceGenerator</code>.
+ */
+public final class TraceGenerator {
+	/** Time between touch events (ms). */
+	private static final int EVENT_TIME = 8;
+	private static final float X = 300;
+	private static final float FADER_X = 600;
+
+	public static void main(String[] args) throws IOException {
+		final File dir = new File(args.length > 0 ? args[0] : "jvmtest/traces");
+		write(dir, baby(), "Baby scratches, 200px strokes of 200ms");
+		write(dir, scribble(), "Scribble, 40px strokes of 40ms");
+		write(dir, tear(), "Three tears, each forward stroke stops for 80ms");
+		write(dir, crab(), "Two crabs, four fader taps during a slow stroke");
+		write(dir, drag(), "Slow drag of 400px down and up, no pattern");
+	}
+
+	private static TouchTrace baby() {
+		final Builder b = new Builder("baby", 1);
+		b.down(0, X, 500);
+		for (int t = EVENT_TIME; t <= 2000; t += EVENT_TIME)
+			b.move(0, X, 500 + 200 * (float) Math.sin(2 * Math.PI * t / 400));
+		b.up(0);
+		return b.build();
+	}
+
+	private static TouchTrace scribble() {
+		final Builder b = new Builder("scribble", 2);
+		b.down(0, X, 500);
+		for (int t = EVENT_TIME; t <= 1500; t += EVENT_TIME)
+			b.move(0, X, 500 + 20 * (float) Math.sin(2 * Math.PI * t / 80));
+		b.up(0);
+		return b.build();
+	}
+
+	private static TouchTrace tear() {
+		final Builder b = new Builder("tear", 3);
+		float y = 500;
+		b.down(0, X, y);
+		for (int k = 0; k < 3; k++) {
+			for (int i = 0; i < 19; i++)
+				b.move(0, X, y -= 8);
+			for (int i = 0; i < 10; i++)
+				b.move(0, X, y);
+			for (int i = 0; i < 19; i++)
+				b.move(0, X, y -= 8);
+			for (int i = 0; i < 25; i++)
+				b.move(0, X, y += 12);
+		}
+		b.up(0);
+		return b.build();
+	}
+
+	private static TouchTrace crab() {
+		final Builder b = new Builder("crab", 4);
+		float y = 500;
+		b.down(0, X, y);
+		for (int k = 0; k < 2; k++) {
+			for (int i = 0; i < 50; i++) {
+				final int t = i * EVENT_TIME;
+				if (t < 256 && t % 64 == 0)
+					b.down(1, FADER_X, 500);
+				else if (t < 256 && t % 64 == 32)
+					b.up(1);
+				b.move(0, X, y -= 6);
+			}
+			for (int i = 0; i < 25; i++)
+				b.move(0, X, y += 12);
+		}
+		b.up(0);
+		return b.build();
+	}
+
+	private static TouchTrace drag() {
+		final Builder b = new Builder("drag", 5);
+		float y = 500;
+		b.down(0, X, y);
+		for (int i = 0; i < 250; i++)
+			b.move(0, X, y -= 1.6f);
+		for (int i = 0; i < 250; i++)
+			b.move(0, X, y += 1.6f);
+		b.up(0);
+		return b.build();
+	}
+
+	private static void write(File dir, TouchTrace trace, String description)
+			throws IOException {
+		final File file = new File(dir, trace.getName() + ".trace");
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			writer.println("# " + description + ".");
+			writer.println("# Synthetic, generated by TraceGenerator.");
+			writer.println("# time action pointer x y");
+			trace.write(writer);
+		} finally {
+			writer.close();
+		}
+		System.out.println(file + ": " + trace.size() + " events");
+	}
+
+	/**
+	 * Collects events at the touch rate. A move advances the time by one
+	 * event, down and up events happen at the time of the last move.
+	 */
+	private static final class Builder {
+		private final String mName;
+		private final Random mRandom;
+		private final List<Long> mTime = new ArrayList<Long>();
+		private final List<Byte> mAction = new ArrayList<Byte>();
+		private final List<Integer> mPointer = new ArrayList<Integer>();
+		private final List<Float> mX = new ArrayList<Float>();
+		private final List<Float> mY = new ArrayList<Float>();
+		private long mNow;
+
+		Builder(String name, long seed) {
+			mName = name;
+			mRandom = new Random(seed);
+		}
+
+		void down(int pointer, float x, float y) {
+			add(TouchTrace.DOWN, pointer, x, y);
+		}
+
+		void move(int pointer, float x, float y) {
+			mNow += EVENT_TIME;
+			add(TouchTrace.MOVE, pointer, x + noise(), y + noise());
+		}
+
+		void up(int pointer) {
+			add(TouchTrace.UP, pointer, 0, 0);
+		}
+
+		private float noise() {
+			// Round to a tenth of a pixel to keep the files short
+			return Math.round((mRandom.nextFloat() - 0.5f) * 30) / 10f;
+		}
+
+		private void add(byte action, int pointer, float x, float y) {
+			mTime.add(mNow);
+			mAction.add(action);
+			mPointer.add(pointer);
+			mX.add(x);
+			mY.add(y);
+		}
+
+		TouchTrace build() {
+			final int size = mTime.size();
+			final long[] time = new long[size];
+			final byte[] action = new byte[size];
+			final int[] pointer = new int[size];
+			final float[] x = new float[size];
+			final float[] y = new float[size];
+			for (int i = 0; i < size; i++) {
+				time[i] = mTime.get(i);
+				action[i] = mAction.get(i);
+				pointer[i] = mPointer.get(i);
+				x[i] = mX.get(i);
+				y[i] = mY.get(i);
+			}
+			return new TouchTrace(mName, time, action, pointer, x, y);
+		}
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates the stereo Ogg Vorbis fixtures in <code>jvmtest/fixtures</code>,
+ * as the bundled clips are all mono. The streams are written bit by bit
+ * without an encoder: short blocks of 256 samples, a flat floor and a fixed
+ * spectrum of a few bins per channel, with a moving bin and two silent
+ * packets. <code>stereo.ogg</code> codes the channels with square polar
+ * coupling, <code>stereo_uncoupled.ogg</code> codes the same spectra
+ * directly, so both decode to the same samples. The last page cuts off the
+ * end with its granule position.
+ * <p>
+ * Run with <code>jvmtest/run.sh StereoFixtureGenerator</code>.
+ */
+public final class StereoFixtureGenerator {
+	static final int SAMPLE_RATE = 44100;
+	/** Short and long block size, as a power of two. */
+	private static final int BLOCK_BITS = 8;
+	private static final int N2 = (1 << BLOCK_BITS) / 2;
+	private static final int PACKETS = 48;
+	private static final int SILENT_FROM = 20;
+	private static final int SILENT_TO = 22;
+	/** Frames cut off the last packet by the final granule position. */
+	private static final int CUT_FRAMES = 37;
+	/** Floor level of both channels, about -19dB. */
+	private static final int FLOOR_Y = 220;
+	private static final int PARTITION_SIZE = 16;
+	private static final int PACKETS_PER_PAGE = 8;
+	/** Residue values range from -MAX_VALUE to MAX_VALUE. */
+	private static final int MAX_VALUE = 4;
+	private static final int VALUES = 2 * MAX_VALUE + 1;
+
+	/** Spectrum bins and their left and right values. */
+	private static final int[][] BINS = { { 4, 4, 4 }, { 9, 2, -2 },
+			{ 17, 3, 0 }, { 30, 0, -3 }, { 45, -2, 1 } };
+	/** First bin of the moving bin, one bin further each packet. */
+	private static final int MOVING_BIN = 60;
+
+	private StereoFixtureGenerator() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		final File dir = new File(args.length > 0 ? args[0]
+				: "jvmtest/fixtures");
+		write(new File(dir, "stereo.ogg"), generate(true));
+		write(new File(dir, "stereo_uncoupled.ogg"), generate(false));
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the final granule position of the fixtures
+	 */
+	static long getFrames() {
+		return (PACKETS - 1) * (long) N2 - CUT_FRAMES;
+	}
+
+	static byte[] generate(boolean coupled) {
+		final OggWriter ogg = new OggWriter();
+		ogg.packet(identification());
+		ogg.flush(0, false);
+		ogg.packet(comment());
+		ogg.packet(setup(coupled));
+		ogg.flush(0, false);
+		for (int p = 0; p < PACKETS; p++) {
+			// A short block after a short block adds half a block
+			final long granule = p == PACKETS - 1 ? getFrames() : p
+					* (long) N2;
+			ogg.packet(audio(p, coupled));
+			if (p == PACKETS - 1)
+				ogg.flush(granule, true);
+			else if (p % PACKETS_PER_PAGE == PACKETS_PER_PAGE - 1)
+				ogg.flush(granule, false);
+		}
+		return ogg.toByteArray();
+	}
+
+	private static void header(BitWriter bw, int type) {
+		bw.write(type, 8);
+		for (char c : "vorbis".toCharArray())
+			bw.write(c, 8);
+	}
+
+	private static byte[] identification() {
+		final BitWriter bw = new BitWriter();
+		header(bw, 1);
+		bw.write(0, 32); // version
+		bw.write(2, 8);
+		bw.write(SAMPLE_RATE, 32);
+		bw.write(0, 32); // bitrate maximum
+		bw.write(0, 32); // bitrate nominal
+		bw.write(0, 32); // bitrate minimum
+		bw.write(BLOCK_BITS, 4);
+		bw.write(BLOCK_BITS, 4);
+		bw.write(1, 1);
+		return bw.toByteArray();
+	}
+
+	private static byte[] comment() {
+		final BitWriter bw = new BitWriter();
+		header(bw, 3);
+		final String vendor = "Deep Scratch StereoFixtureGenerator";
+		bw.write(vendor.length(), 32);
+		for (char c : vendor.toCharArray())
+			bw.write(c, 8);
+		bw.write(0, 32); // user comments
+		bw.write(1, 1);
+		return bw.toByteArray();
+	}
+
+	/**
+	 * Codebook 0 classifies residue partitions as silent or not, codebook 1
+	 * holds pairs of residue values. One floor 1 without partitions, one
+	 * residue 2, one mapping and one short block mode.
+	 */
+	private static byte[] setup(boolean coupled) {
+		final BitWriter bw = new BitWriter();
+		header(bw, 5);
+
+		bw.write(2 - 1, 8);
+		// Classbook
+		bw.write(0x564342, 24);
+		bw.write(1, 16);
+		bw.write(2, 24);
+		bw.write(0, 1); // not ordered
+		bw.write(0, 1); // not sparse
+		bw.write(1 - 1, 5);
+		bw.write(1 - 1, 5);
+		bw.write(0, 4); // no lookup
+		// Residue book
+		bw.write(0x564342, 24);
+		bw.write(2, 16);
+		bw.write(VALUES * VALUES, 24);
+		bw.write(0, 1);
+		bw.write(0, 1);
+		for (int entry = 0; entry < VALUES * VALUES; entry++)
+			bw.write(residueLength(entry) - 1, 5);
+		bw.write(1, 4); // lookup type 1
+		bw.write(float32Pack(-MAX_VALUE), 32);
+		bw.write(float32Pack(1), 32);
+		bw.write(4 - 1, 4); // value bits
+		bw.write(0, 1); // not sequence_p
+		for (int i = 0; i < VALUES; i++)
+			bw.write(i, 4);
+
+		// Time domain transform
+		bw.write(1 - 1, 6);
+		bw.write(0, 16);
+
+		// Floor 1 with only the two end points
+		bw.write(1 - 1, 6);
+		bw.write(1, 16);
+		bw.write(0, 5); // partitions
+		bw.write(1 - 1, 2); // multiplier
+		bw.write(BLOCK_BITS - 1, 4); // range bits
+		// Residue 2, all channels interleaved
+		bw.write(1 - 1, 6);
+		bw.write(2, 16);
+		bw.write(0, 24); // begin
+		bw.write(2 * N2, 24); // end
+		bw.write(PARTITION_SIZE - 1, 24);
+		bw.write(2 - 1, 6); // classifications
+		bw.write(0, 8); // classbook
+		bw.write(0, 3); // class 0, no books
+		bw.write(0, 1);
+		bw.write(1, 3); // class 1, a book in pass 0
+		bw.write(0, 1);
+		bw.write(1, 8);
+
+		// Mapping
+		bw.write(1 - 1, 6);
+		bw.write(0, 16);
+		bw.write(0, 1); // one submap
+		if (coupled) {
+			bw.write(1, 1);
+			bw.write(1 - 1, 8);
+			bw.write(0, 1); // magnitude
+			bw.write(1, 1); // angle
+		} else {
+			bw.write(0, 1);
+		}
+		bw.write(0, 2);
+		bw.write(0, 8); // time
+		bw.write(0, 8); // floor
+		bw.write(0, 8); // residue
+
+		// Mode
+		bw.write(1 - 1, 6);
+		bw.write(0, 1); // short block
+		bw.write(0, 16);
+		bw.write(0, 16);
+		bw.write(0, 8);
+
+		bw.write(1, 1);
+		return bw.toByteArray();
+	}
+
+	private static int float32Pack(int value) {
+		final int exponent = 788;
+		return (value < 0 ? 0x80000000 : 0) | exponent << 21
+				| Math.abs(value);
+	}
+
+	/**
+	 * Lengths of the residue book, 47 codewords of 6 bits and 34 of 7 bits
+	 * make a complete Huffman tree.
+	 */
+	private static int residueLength(int entry) {
+		return entry < 47 ? 6 : 7;
+	}
+
+	/**
+	 * With lengths that never decrease the Vorbis codewords are the
+	 * canonical Huffman codes.
+	 */
+	private static int residueCode(int entry) {
+		return entry < 47 ? entry : 2 * 47 + entry - 47;
+	}
+
+	/**
+	 * @return spectrum values of a packet, n / 2 per channel
+	 */
+	static int[][] spectrum(int packet) {
+		final int[][] spectrum = new int[2][N2];
+		for (int[] bin : BINS) {
+			spectrum[0][bin[0]] = bin[1];
+			spectrum[1][bin[0]] = bin[2];
+		}
+		spectrum[0][MOVING_BIN + packet % 32] = 1;
+		spectrum[1][MOVING_BIN + packet % 32] = -1;
+		return spectrum;
+	}
+
+	private static byte[] audio(int packet, boolean coupled) {
+		final BitWriter bw = new BitWriter();
+		bw.write(0, 1); // audio packet, mode 0 needs no bits
+		if (packet >= SILENT_FROM && packet < SILENT_TO) {
+			// Both floors unused, there is no residue
+			bw.write(0, 1);
+			bw.write(0, 1);
+			return bw.toByteArray();
+		}
+		for (int c = 0; c < 2; c++) {
+			bw.write(1, 1);
+			bw.write(FLOOR_Y, 8);
+			bw.write(FLOOR_Y, 8);
+		}
+
+		final int[][] spectrum = spectrum(packet);
+		final int[] interleaved = new int[2 * N2];
+		for (int i = 0; i < N2; i++) {
+			final int left = spectrum[0][i];
+			final int right = spectrum[1][i];
+			if (coupled) {
+				final int[] ma = couple(left, right);
+				interleaved[2 * i] = ma[0];
+				interleaved[2 * i + 1] = ma[1];
+			} else {
+				interleaved[2 * i] = left;
+				interleaved[2 * i + 1] = right;
+			}
+		}
+		for (int p = 0; p < interleaved.length; p += PARTITION_SIZE) {
+			boolean silent = true;
+			for (int i = p; i < p + PARTITION_SIZE; i++)
+				silent &= interleaved[i] == 0;
+			bw.write(silent ? 0 : 1, 1);
+			if (silent)
+				continue;
+			for (int i = p; i < p + PARTITION_SIZE; i += 2) {
+				final int entry = interleaved[i] + MAX_VALUE
+						+ VALUES * (interleaved[i + 1] + MAX_VALUE);
+				bw.writeCode(residueCode(entry), residueLength(entry));
+			}
+		}
+		return bw.toByteArray();
+	}
+
+	/**
+	 * Square polar coupling of a left and right value.
+	 *
+	 * @return magnitude and angle
+	 */
+	private static int[] couple(int left, int right) {
+		final int magnitude;
+		final int angle;
+		if (left > 0 && left > right) {
+			magnitude = left;
+			angle = left - right;
+		} else if (right > 0 && left <= right) {
+			magnitude = right;
+			angle = left - right;
+		} else if (right > left) {
+			magnitude = left;
+			angle = right - left;
+		} else {
+			magnitude = right;
+			angle = right - left;
+		}
+		if (Math.abs(magnitude) > MAX_VALUE || Math.abs(angle) > MAX_VALUE)
+			throw new IllegalArgumentException("Cannot couple " + left + " "
+					+ right);
+		return new int[] { magnitude, angle };
+	}
+
+	/**
+	 * Write bits least significant bit first, as Vorbis reads them.
+	 */
+	private static final class BitWriter {
+		private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+		private int mByte;
+		private int mBits;
+
+		void write(int value, int bits) {
+			for (int i = 0; i < bits; i++)
+				writeBit((value >>> i) & 1);
+		}
+
+		/**
+		 * Write a Huffman codeword, most significant bit first.
+		 */
+		void writeCode(int code, int length) {
+			for (int i = length - 1; i >= 0; i--)
+				writeBit((code >>> i) & 1);
+		}
+
+		private void writeBit(int bit) {
+			mByte |= bit << mBits;
+			if (++mBits == 8) {
+				mOut.write(mByte);
+				mByte = 0;
+				mBits = 0;
+			}
+		}
+
+		byte[] toByteArray() {
+			if (mBits > 0) {
+				mOut.write(mByte);
+				mByte = 0;
+				mBits = 0;
+			}
+			return mOut.toByteArray();
+		}
+	}
+
+	/**
+	 * Collect packets into Ogg pages.
+	 */
+	private static final class OggWriter {
+		private static final int SERIAL = 0x44530001;
+		private static final int[] CRC_TABLE = new int[256];
+
+		static {
+			for (int i = 0; i < 256; i++) {
+				int r = i << 24;
+				for (int j = 0; j < 8; j++)
+					r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04c11db7
+							: r << 1;
+				CRC_TABLE[i] = r;
+			}
+		}
+
+		private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream mLacing =
+				new ByteArrayOutputStream();
+		private int mSequence;
+
+		void packet(byte[] packet) {
+			int length = packet.length;
+			while (length >= 255) {
+				mLacing.write(255);
+				length -= 255;
+			}
+			mLacing.write(length);
+			mBody.write(packet, 0, packet.length);
+		}
+
+		void flush(long granule, boolean last) {
+			final byte[] lacing = mLacing.toByteArray();
+			final byte[] body = mBody.toByteArray();
+			final byte[] page = new byte[27 + lacing.length + body.length];
+			page[0] = 'O';
+			page[1] = 'g';
+			page[2] = 'g';
+			page[3] = 'S';
+			page[5] = (byte) ((mSequence == 0 ? 0x02 : 0) | (last ? 0x04 : 0));
+			putLittleEndian(page, 6, granule, 8);
+			putLittleEndian(page, 14, SERIAL, 4);
+			putLittleEndian(page, 18, mSequence++, 4);
+			page[26] = (byte) lacing.length;
+			System.arraycopy(lacing, 0, page, 27, lacing.length);
+			System.arraycopy(body, 0, page, 27 + lacing.length, body.length);
+			int crc = 0;
+			for (byte b : page)
+				crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ b) & 0xff];
+			putLittleEndian(page, 22, crc, 4);
+			mOut.write(page, 0, page.length);
+			mLacing.reset();
+			mBody.reset();
+		}
+
+		private static void putLittleEndian(byte[] b, int offset, long value,
+				int bytes) {
+			for (int i = 0; i < bytes; i++)
+				b[offset + i] = (byte) (value >>> 8 * i);
+		}
+
+		byte[] toByteArray() {
+			return mOut.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.brillenheini.deepscratch.Bench;
+
+/**
+ * Decoding speed of the clips in <code>res/raw</code>, to 16 bit and to float
+ * samples. The files are read into memory first and decoded from a
+ * {@link ByteBuffer} like the clips of the app are decoded from a stream, so
+ * only decoding is measured. One operation is one frame, the bytes allocated
+ * are the buffers the decoder sets up for each file.
+ */
+public final class VorbisDecoderBenchmark {
+	/** Frames decoded per read, like SampleBank. */
+	private static final int DECODE_FRAMES = 4096;
+
+	public static void main(String[] args) throws IOException {
+		for (File file : clips()) {
+			final byte[] data = readFile(file);
+			final VorbisDecoder decoder = new VorbisDecoder(ByteBuffer
+					.wrap(data));
+			final short[] shorts = new short[DECODE_FRAMES
+					* decoder.getChannels()];
+			final float[] floats = new float[DECODE_FRAMES
+					* decoder.getChannels()];
+			final int rate = decoder.getSampleRate();
+
+			report(Bench.run("decode short[] " + file.getName(),
+					new Bench.Body() {
+						@Override
+						public int run() {
+							return decode(data, shorts, null);
+						}
+					}), rate);
+			report(Bench.run("decode float[] " + file.getName(),
+					new Bench.Body() {
+						@Override
+						public int run() {
+							return decode(data, null, floats);
+						}
+					}), rate);
+		}
+	}
+
+	/**
+	 * Decode a whole file to one of the buffers.
+	 *
+	 * @return number of frames decoded
+	 */
+	private static int decode(byte[] data, short[] shorts, float[] floats) {
+		try {
+			final VorbisDecoder decoder = new VorbisDecoder(ByteBuffer
+					.wrap(data));
+			int frames = 0;
+			while (true) {
+				final int read = shorts != null ? decoder.read(shorts, 0,
+						DECODE_FRAMES) : decoder.read(floats, 0, DECODE_FRAMES);
+				if (read < 0)
+					return frames;
+				frames += read;
+			}
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+	}
+
+	private static void report(double nanosPerFrame, int sampleRate) {
+		System.out.println(String.format("  %.0f frames/s, %.1fx real time",
+				1e9 / nanosPerFrame, 1e9 / nanosPerFrame / sampleRate));
+	}
+
+	/**
+	 * @return the Ogg Vorbis files in <code>res/raw</code>, sorted by name
+	 */
+	static File[] clips() {
+		final File[] files = new File("res/raw").listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(".ogg");
+			}
+		});
+		if (files == null)
+			throw new IllegalStateException("res/raw not found, run from the "
+					+ "project directory");
+		Arrays.sort(files);
+		return files;
+	}
+
+	static byte[] readFile(File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
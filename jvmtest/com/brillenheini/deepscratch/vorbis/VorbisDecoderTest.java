@@ -0,0 +1,161 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.brillenheini.deepscratch.Check;
+
+/**
+ * Decodes the bundled clips and the stereo fixtures. The number of frames
+ * must match the granule position of the last page, samples must be finite,
+ * and decoding from a stream, from a buffer and to 16 bit must agree. The
+ * coupled and the uncoupled stereo fixture code the same spectra, so they
+ * must decode to the same samples.
+ */
+public final class VorbisDecoderTest {
+	/** Odd size, so reads end in the middle of packets. */
+	private static final int CHUNK_FRAMES = 997;
+
+	public static void main(String[] args) throws IOException {
+		for (File file : VorbisDecoderBenchmark.clips())
+			check(file);
+		check(new File("jvmtest/fixtures/stereo.ogg"));
+		check(new File("jvmtest/fixtures/stereo_uncoupled.ogg"));
+		stereo();
+		System.out.println("ok");
+	}
+
+	private static void check(File file) throws IOException {
+		final String name = file.getName();
+		final byte[] data = VorbisDecoderBenchmark.readFile(file);
+
+		final VorbisDecoder stream = new VorbisDecoder(
+				new ByteArrayInputStream(data));
+		final float[] samples = decode(stream);
+		final int channels = stream.getChannels();
+		Check.equal(finalGranule(data), samples.length / channels, name
+				+ " frames");
+		Check.equal(samples.length / channels, stream.getFramesDecoded(),
+				name + " frames decoded");
+		for (int i = 0; i < samples.length; i++)
+			if (Float.isNaN(samples[i]) || Float.isInfinite(samples[i]))
+				throw new AssertionError(name + ": sample " + i + " is "
+						+ samples[i]);
+
+		final float[] buffered = decode(new VorbisDecoder(ByteBuffer
+				.wrap(data)));
+		Check.isTrue(Arrays.equals(samples, buffered), name
+				+ ": stream and buffer differ");
+
+		final short[] shorts = decodeShorts(new VorbisDecoder(
+				new ByteArrayInputStream(data)));
+		Check.equal(samples.length, shorts.length, name + " 16 bit samples");
+		for (int i = 0; i < samples.length; i++) {
+			final int s = Math.round(samples[i] * 32767);
+			Check.equal(Math.max(-32768, Math.min(32767, s)), shorts[i], name
+					+ " 16 bit sample " + i);
+		}
+	}
+
+	/**
+	 * Coupling is undone exactly, and the channels really differ.
+	 */
+	private static void stereo() throws IOException {
+		final VorbisDecoder coupled = open("jvmtest/fixtures/stereo.ogg");
+		Check.equal(2, coupled.getChannels(), "channels");
+		Check.equal(StereoFixtureGenerator.SAMPLE_RATE,
+				coupled.getSampleRate(), "sample rate");
+		final float[] samples = decode(coupled);
+		Check.equal(StereoFixtureGenerator.getFrames(), samples.length / 2,
+				"stereo frames");
+		final float[] uncoupled = decode(
+				open("jvmtest/fixtures/stereo_uncoupled.ogg"));
+		Check.isTrue(Arrays.equals(samples, uncoupled),
+				"coupled and uncoupled stereo differ");
+
+		float peak = 0;
+		float difference = 0;
+		for (int i = 0; i < samples.length; i += 2) {
+			peak = Math.max(peak, Math.abs(samples[i]));
+			difference = Math.max(difference, Math.abs(samples[i]
+					- samples[i + 1]));
+		}
+		Check.isTrue(peak > 0.05f, "stereo peak " + peak);
+		Check.isTrue(difference > 0.05f, "stereo channel difference "
+				+ difference);
+	}
+
+	private static VorbisDecoder open(String path) throws IOException {
+		return new VorbisDecoder(new ByteArrayInputStream(
+				VorbisDecoderBenchmark.readFile(new File(path))));
+	}
+
+	private static float[] decode(VorbisDecoder decoder) throws IOException {
+		final int channels = decoder.getChannels();
+		float[] samples = new float[CHUNK_FRAMES * channels];
+		int frames = 0;
+		while (true) {
+			if ((frames + CHUNK_FRAMES) * channels > samples.length)
+				samples = Arrays.copyOf(samples, samples.length * 2);
+			final int read = decoder.read(samples, frames * channels,
+					CHUNK_FRAMES);
+			if (read < 0)
+				break;
+			frames += read;
+		}
+		return Arrays.copyOf(samples, frames * channels);
+	}
+
+	private static short[] decodeShorts(VorbisDecoder decoder)
+			throws IOException {
+		final int channels = decoder.getChannels();
+		short[] samples = new short[CHUNK_FRAMES * channels];
+		int frames = 0;
+		while (true) {
+			if ((frames + CHUNK_FRAMES) * channels > samples.length)
+				samples = Arrays.copyOf(samples, samples.length * 2);
+			final int read = decoder.read(samples, frames * channels,
+					CHUNK_FRAMES);
+			if (read < 0)
+				break;
+			frames += read;
+		}
+		return Arrays.copyOf(samples, frames * channels);
+	}
+
+	/**
+	 * @return granule position of the last page
+	 */
+	private static long finalGranule(byte[] data) throws IOException {
+		final InputStream in = new ByteArrayInputStream(data);
+		final OggReader ogg = new OggReader(in);
+		long granule = -1;
+		while (ogg.nextPacket())
+			if (ogg.getPacketGranule() >= 0)
+				granule = ogg.getPacketGranule();
+		return granule;
+	}
+}
@@ -0,0 +1,55 @@
+#!/bin/sh
+#
+# Compile the parts of Deep Scratch that do not depend on Android together
+# with the JVM tests and benchmarks, then run them.
+#
+# Usage: jvmtest/run.sh            run all tests
+#        jvmtest/run.sh bench      run all benchmarks
+#        jvmtest/run.sh Name...    run single classes, e.g. TriggerQueueTest
+#
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT=${TMPDIR:-/tmp}/deepscratch-jvmtest
+SRC=$ROOT/src/com/brillenheini/deepscratch
+
+# Sources without Android dependencies
+SOURCES="time/Scheduler time/VirtualScheduler
+	view/MotionPredictor view/ScratchClassifier view/ScratchGesture
+	view/Turntable
+	sound/AudioWatchdog sound/BiquadFilter sound/Echo sound/EffectsChain
+	sound/GainEnvelope sound/PcmData sound/Sample sound/TriggerQueue"
+
+FILES=$(find "$ROOT/jvmtest" "$SRC/vorbis" -name '*.java')
+for s in $SOURCES; do
+	FILES="$FILES $SRC/$s.java"
+done
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -Xlint:all -d "$OUT" $FILES
+
+case "$1" in
+"")
+	PATTERN='*Test.java' ;;
+bench)
+	PATTERN='*Benchmark.java' ;;
+*)
+	PATTERN= ;;
+esac
+
+if [ -n "$PATTERN" ]; then
+	set -- $(find "$ROOT/jvmtest" -name "$PATTERN" -exec basename {} .java \; | sort)
+fi
+
+cd "$ROOT"
+for name in "$@"; do
+	file=$(find "$ROOT/jvmtest" -name "$name.java")
+	if [ -z "$file" ]; then
+		echo "No such test: $name" >&2
+		exit 1
+	fi
+	class=$(echo "${file#$ROOT/jvmtest/}" | sed 's/\.java$//; s#/#.#g')
+	echo "== $name"
+	java -cp "$OUT" "$class"
+done
@@ -19,7 +19,9 @@
  */
 package com.brillenheini.deepscratch;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,16 +32,20 @@ import android.content.Intent;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.method.LinkMovementMethod;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.SubMenu;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.brillenheini.deepscratch.free.R;
 import com.brillenheini.deepscratch.log.LL;
+import com.brillenheini.deepscratch.log.StartupTrace;
 import com.brillenheini.deepscratch.sound.Sample;
 import com.brillenheini.deepscratch.sound.ScratchSoundPool;
 import com.brillenheini.deepscratch.view.Converter;
@@ -71,13 +77,38 @@ public class DeepScratch extends Activity {
 	private ScratchView mScratchView;
 	private MediaPlayer mPlayer;
 
+	// Set when the sounds and the player are handed to the next instance
+	private boolean mRetained = false;
+
+	// Time measurement of (re)creation
+	private long mCreateTime;
+	private long mRetainTime;
+
+	/**
+	 * Objects kept across configuration changes, so rotating the device does
+	 * not reload the sample or prepare the player again.
+	 */
+	private static final class RetainedState {
+		List<Sample> samples;
+		ScratchSoundPool sounds;
+		MediaPlayer player;
+		long retainTime;
+	}
+
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
+		final long createTime = SystemClock.uptimeMillis();
+		mCreateTime = createTime;
+		final StartupTrace trace = new StartupTrace("onCreate");
+		trace.begin("super");
 		super.onCreate(savedInstanceState);
+		trace.begin("converter");
 		Converter.initialize(this);
+		trace.begin("layout");
 		setContentView(R.layout.main);
 
 		// Try to restore instance state
+		trace.begin("state");
 		if (savedInstanceState != null) {
 			mSelectedSample = savedInstanceState.getInt(STATE_SAMPLE);
 			String uri = savedInstanceState.getString(STATE_URI);
@@ -90,16 +121,50 @@ public class DeepScratch extends Activity {
 				LL.debug("Restoring: sample=" + mSelectedSample + " uri=" + uri
 						+ " position=" + mPosition + " paused=" + mPaused);
 		}
-		mSamples = new ArrayList<Sample>();
-		addSamples(mSamples);
+		RetainedState retained = (RetainedState) getLastNonConfigurationInstance();
+		if (retained != null) {
+			// Configuration change, take over the running sounds and player
+			mSamples = retained.samples;
+			mSounds = retained.sounds;
+			mPlayer = retained.player;
+			mRetainTime = retained.retainTime;
+		} else {
+			trace.begin("sounds");
+			mSamples = new ArrayList<Sample>();
+			addSamples(mSamples);
 
-		mSounds = new ScratchSoundPool();
-		mSounds.loadSample(this, mSamples.get(mSelectedSample));
+			// Decoding runs in the background, the selected sample first
+			mSounds = new ScratchSoundPool(this);
+			loadSample();
+			mSounds.preloadSamples(mSamples);
+		}
 
+		trace.begin("view");
 		setVolumeControlStream(AudioManager.STREAM_MUSIC);
 
 		mScratchView = (ScratchView) findViewById(R.id.scratch);
 		mScratchView.setScratchSoundPool(mSounds);
+
+		// Sections must not stay open past onCreate, the first frame is only
+		// logged
+		trace.end();
+		mScratchView.getViewTreeObserver().addOnPreDrawListener(
+				new OnPreDrawListener() {
+					@Override
+					public boolean onPreDraw() {
+						mScratchView.getViewTreeObserver()
+								.removeOnPreDrawListener(this);
+						if (LL.isDebugEnabled())
+							LL.debug("onCreate: first frame after "
+									+ (SystemClock.uptimeMillis() - createTime)
+									+ "ms");
+						return true;
+					}
+				});
+	}
+
+	private void loadSample() {
+		mSounds.loadSample(mSamples.get(mSelectedSample));
 	}
 
 	/**
@@ -111,6 +176,17 @@ public class DeepScratch extends Activity {
 		l.add(new Sample("Fresh", R.raw.fresh, R.raw.fresh_fw, R.raw.fresh_bw));
 	}
 
+	@Override
+	public Object onRetainNonConfigurationInstance() {
+		RetainedState retained = new RetainedState();
+		retained.samples = mSamples;
+		retained.sounds = mSounds;
+		retained.player = mPlayer;
+		retained.retainTime = SystemClock.uptimeMillis();
+		mRetained = true;
+		return retained;
+	}
+
 	@Override
 	protected void onSaveInstanceState(Bundle outState) {
 		super.onSaveInstanceState(outState);
@@ -125,7 +201,7 @@ public class DeepScratch extends Activity {
 	@Override
 	protected void onStart() {
 		super.onStart();
-		if (mUri != null)
+		if (mUri != null && mPlayer == null)
 			preparePlayer();
 	}
 
@@ -135,26 +211,68 @@ public class DeepScratch extends Activity {
 		mScratchView.startRotation();
 		if (mPlayer != null && !mPaused)
 			mPlayer.start();
+
+		// Log the time from onCreate to the first onResume
+		if (mCreateTime != 0) {
+			if (LL.isDebugEnabled()) {
+				long now = SystemClock.uptimeMillis();
+				if (mRetainTime != 0)
+					LL.debug("Recreated in " + (now - mCreateTime) + "ms, "
+							+ (now - mRetainTime) + "ms since retain");
+				else
+					LL.debug("Created in " + (now - mCreateTime) + "ms");
+			}
+			mCreateTime = 0;
+			mRetainTime = 0;
+		}
 	}
 
 	@Override
 	protected void onPause() {
 		super.onPause();
 		mScratchView.stopRotation();
-		if (mPlayer != null && mPlayer.isPlaying())
+		// Keep the music playing through a rotation
+		if (mPlayer != null && mPlayer.isPlaying() && !isRecreating())
 			mPlayer.pause();
 	}
 
 	@Override
 	protected void onStop() {
 		super.onStop();
-		closePlayer();
+		// Keep the player prepared if the activity is just recreated
+		if (!isRecreating())
+			closePlayer();
+	}
+
+	/**
+	 * @return true if the activity is stopped only to be recreated for a
+	 *         configuration change. Before Honeycomb there is no way to know,
+	 *         so false is returned.
+	 */
+	private boolean isRecreating() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+				&& isChangingConfigurations();
 	}
 
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
-		mSounds.close();
+		if (!mRetained)
+			mSounds.close();
+	}
+
+	/**
+	 * Print audio and touch diagnostics. Included in bug reports and the output of
+	 * <code>adb shell dumpsys activity</code> on Honeycomb and later.
+	 */
+	@Override
+	public void dump(String prefix, FileDescriptor fd, PrintWriter writer,
+			String[] args) {
+		super.dump(prefix, fd, writer, args);
+		if (mSounds != null)
+			mSounds.dump(prefix, writer);
+		if (mScratchView != null)
+			mScratchView.dump(prefix, writer);
 	}
 
 	@Override
@@ -238,7 +356,7 @@ public class DeepScratch extends Activity {
 				item.setChecked(true);
 				mSelectedSample = Sample.findSample(mSamples, item.getTitle()
 						.toString());
-				mSounds.loadSample(this, mSamples.get(mSelectedSample));
+				loadSample();
 			}
 			return true;
 		default:
@@ -0,0 +1,82 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.log;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Split startup work into named phases. Each phase is logged with its
+ * duration and, on Jelly Bean MR2 and later, shows up as a section in
+ * systrace. Phases are sequential and must begin and end on the same thread,
+ * within the same Looper message. Otherwise ending a phase closes whatever
+ * section the framework has opened at that point.
+ */
+public final class StartupTrace {
+	private static final boolean TRACE_AVAILABLE =
+			Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+	private final String mName;
+	private final long mStart;
+	private String mPhase;
+	private long mPhaseStart;
+
+	/**
+	 * @param name
+	 *            prefix for log messages
+	 */
+	public StartupTrace(String name) {
+		mName = name;
+		mStart = SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * Begin a phase. A running phase is ended first.
+	 */
+	public void begin(String phase) {
+		endPhase();
+		mPhase = phase;
+		mPhaseStart = SystemClock.uptimeMillis();
+		if (TRACE_AVAILABLE)
+			Trace.beginSection(mName + ":" + phase);
+	}
+
+	/**
+	 * End the running phase and log the total time since construction.
+	 */
+	public void end() {
+		endPhase();
+		if (LL.isDebugEnabled())
+			LL.debug(mName + ": total " + (SystemClock.uptimeMillis() - mStart)
+					+ "ms");
+	}
+
+	private void endPhase() {
+		if (mPhase == null)
+			return;
+		if (TRACE_AVAILABLE)
+			Trace.endSection();
+		if (LL.isDebugEnabled())
+			LL.debug(mName + ": " + mPhase + " "
+					+ (SystemClock.uptimeMillis() - mPhaseStart) + "ms");
+		mPhase = null;
+	}
+}
@@ -0,0 +1,455 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.brillenheini.deepscratch.log.LL;
+
+/**
+ * Render loop writing mono blocks to an {@link AudioTrack}. Voices play
+ * {@link PcmData} at a pitch, the mix goes through a {@link GainEnvelope} for
+ * the fader and an {@link EffectsChain}.
+ * <p>
+ * Plays are scheduled for an exact frame, blocks are split at the frames
+ * where voices start. Plays are passed to the render thread through a
+ * {@link TriggerQueue}, there must be only one thread calling the play methods
+ * and {@link #setGain(float, long)}, usually the UI thread. Rendering does not
+ * allocate memory. When nothing has been played for a while the track is
+ * paused and the render thread parks until the next play. The frame clock
+ * follows the system clock while the thread is parked or not started yet,
+ * so frames scheduled on a beat grid stay in time across pauses.
+ * <p>
+ * Plays and gain changes caused by touch events are stamped with the uptime
+ * of the event. The engine keeps an anchor between render frames and uptime,
+ * updated once per block, and both are placed at the frame of their event,
+ * see {@link #frameOf(long)}. A cut thereby lands where it was made relative
+ * to the sound it gates, independent of when the UI thread gets to handle
+ * the events.
+ * <p>
+ * The track is created on the render thread. A track that fails to write is
+ * replaced, after {@link #MAX_RESTARTS} failures in a row the engine stops
+ * and every play fails.
+ */
+public final class AudioEngine implements Runnable {
+	public static final int SAMPLE_RATE = 44100;
+	/** Frames rendered per block, about 6ms. */
+	public static final int BLOCK_FRAMES = 256;
+	/** Silence before the track is paused. */
+	private static final int IDLE_MILLIS = 2000;
+	private static final int IDLE_BLOCKS = SAMPLE_RATE * IDLE_MILLIS / 1000
+			/ BLOCK_FRAMES;
+	private static final double NANOS_PER_FRAME = 1e9 / SAMPLE_RATE;
+	/** Value of {@link #mIdleOrigin} while the render thread is running. */
+	private static final long NOT_IDLE = Long.MIN_VALUE;
+	/** Delay from an event to its frame, like {@link #getNextFrame()}. */
+	private static final int EVENT_LATENCY_FRAMES = BLOCK_FRAMES;
+	/** Weight of a new measurement in the frame anchor, as a shift. */
+	private static final int ANCHOR_SMOOTHING = 4;
+	/** Track restarts after failed writes before the engine gives up. */
+	private static final int MAX_RESTARTS = 3;
+
+	private final AudioWatchdog mWatchdog;
+	private final GainEnvelope mEnvelope = new GainEnvelope(SAMPLE_RATE);
+	private final EffectsChain mEffects = new EffectsChain(SAMPLE_RATE, 1);
+	private final TriggerQueue mTriggers = new TriggerQueue();
+
+	// Voices, render thread only
+	private final PcmData[] mVoiceData;
+	private final double[] mVoicePosition;
+	private final double[] mVoiceStep;
+	private int mNextVoice;
+	private int mSilentBlocks = IDLE_BLOCKS;
+
+	private final float[] mMix = new float[BLOCK_FRAMES];
+	private final short[] mOutput = new short[BLOCK_FRAMES];
+	private volatile long mBlockFrame;
+	/**
+	 * {@link System#nanoTime()} of frame 0 while the render thread is parked
+	 * or not started.
+	 */
+	private volatile long mIdleOrigin;
+	/** Render frame at uptime 0, smoothed over blocks. */
+	private volatile long mFrameBase;
+	/** Frame of the last gain change, UI thread only. */
+	private long mLastGainFrame;
+	private volatile boolean mRunning;
+	/** Render thread only, read by {@link #close()} after it has ended. */
+	private AudioTrack mTrack;
+	/** Time the full track buffer plays (ns), render thread only. */
+	private long mBufferNanos;
+	// Guarded by this, read by the play methods after mRunning
+	private volatile Thread mThread;
+	private boolean mClosed;
+
+	/**
+	 * @param voices
+	 *            number of sounds playing at the same time, the oldest one is
+	 *            stopped if more are played
+	 * @param watchdog
+	 *            receives the timing of each block
+	 */
+	public AudioEngine(int voices, AudioWatchdog watchdog) {
+		mWatchdog = watchdog;
+		mVoiceData = new PcmData[voices];
+		mVoicePosition = new double[voices];
+		mVoiceStep = new double[voices];
+		// The frame clock runs from here, before the engine is started
+		mIdleOrigin = System.nanoTime();
+		mFrameBase = -frames(SystemClock.uptimeMillis());
+	}
+
+	public EffectsChain getEffects() {
+		return mEffects;
+	}
+
+	/**
+	 * Start the render thread, which creates the track. If the track cannot
+	 * be initialized the engine stops and every play fails. Does nothing if
+	 * the engine has been started or closed already. May be called from any
+	 * thread, plays fail until it has been called.
+	 */
+	public synchronized void start() {
+		if (mThread != null || mClosed)
+			return;
+		mThread = new Thread(this, "AudioEngine");
+		mRunning = true;
+		mThread.start();
+	}
+
+	/**
+	 * @return false before {@link #start()}, after {@link #close()} and after
+	 *         the track failed
+	 */
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Create and initialize a track and set {@link #mBufferNanos}.
+	 *
+	 * @return the track or null if it cannot be initialized
+	 */
+	private AudioTrack createTrack() {
+		final int minBuffer = AudioTrack.getMinBufferSize(SAMPLE_RATE,
+				AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+		final int bufferBytes = Math.max(minBuffer, BLOCK_FRAMES * 2 * 2);
+		final AudioTrack track;
+		try {
+			track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE,
+					AudioFormat.CHANNEL_OUT_MONO,
+					AudioFormat.ENCODING_PCM_16BIT, bufferBytes,
+					AudioTrack.MODE_STREAM);
+		} catch (IllegalArgumentException iae) {
+			LL.error("Error creating audio track", iae);
+			return null;
+		}
+		if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+			LL.error("Audio track not initialized, state " + track.getState());
+			track.release();
+			return null;
+		}
+		mBufferNanos = (long) (bufferBytes / 2 * NANOS_PER_FRAME);
+		return track;
+	}
+
+	/**
+	 * @return the first frame that has not been rendered yet, the earliest
+	 *         frame a play can start at
+	 */
+	public long getNextFrame() {
+		// mBlockFrame is written before mIdleOrigin is cleared on wake up
+		final long origin = mIdleOrigin;
+		if (origin != NOT_IDLE)
+			return (long) ((System.nanoTime() - origin) / NANOS_PER_FRAME)
+					+ BLOCK_FRAMES;
+		return mBlockFrame + BLOCK_FRAMES;
+	}
+
+	/**
+	 * Play a sound as soon as possible.
+	 *
+	 * @see #play(PcmData, float, long)
+	 */
+	public boolean play(PcmData data, float pitch) {
+		return play(data, pitch, getNextFrame());
+	}
+
+	/**
+	 * Play a sound starting at a frame. A frame that has already been
+	 * rendered when the play reaches the render thread starts the sound at
+	 * the beginning of the next block and counts as late.
+	 *
+	 * @param pitch
+	 *            1 for the original speed
+	 * @param frame
+	 *            render frame to start at, see {@link #getNextFrame()}
+	 * @return false if the engine is not running or the queue is full and
+	 *         the play was dropped
+	 */
+	public boolean play(PcmData data, float pitch, long frame) {
+		if (!mRunning)
+			return false;
+		if (!mTriggers.post(data, pitch * data.getSampleRate() / SAMPLE_RATE,
+				frame))
+			return false;
+		LockSupport.unpark(mThread);
+		return true;
+	}
+
+	/**
+	 * @param uptime
+	 *            in milliseconds, see {@link SystemClock#uptimeMillis()}
+	 * @return render frame that was rendered at a time
+	 */
+	public long frameAt(long uptime) {
+		return mFrameBase + frames(uptime);
+	}
+
+	/**
+	 * Render frame for a touch event, the frame {@link #getNextFrame()}
+	 * returned when the event happened. Plays and gain changes of events use
+	 * it alike. If the event is handled after that frame has been rendered,
+	 * the play or change starts at the next block and counts as late.
+	 *
+	 * @param time
+	 *            uptime of the event in milliseconds, see
+	 *            {@link android.view.MotionEvent#getEventTime()}
+	 */
+	public long frameOf(long time) {
+		return frameAt(time) + EVENT_LATENCY_FRAMES;
+	}
+
+	/**
+	 * Change the gain at the frame of an event. Changes keep their order even
+	 * if the frame anchor moves between them.
+	 *
+	 * @param level
+	 *            0 to cut the sound, 1 for full volume
+	 * @param time
+	 *            uptime of the event in milliseconds, see
+	 *            {@link android.view.MotionEvent#getEventTime()}
+	 */
+	public void setGain(float level, long time) {
+		final long frame = Math.max(frameOf(time), mLastGainFrame);
+		mLastGainFrame = frame;
+		mWatchdog.gainPosted(mEnvelope.post(frame, level));
+	}
+
+	private static long frames(long millis) {
+		return millis * SAMPLE_RATE / 1000;
+	}
+
+	/**
+	 * Stop the render thread and release the track. The engine cannot be
+	 * started again.
+	 */
+	public synchronized void close() {
+		mClosed = true;
+		if (mThread == null)
+			return;
+		mRunning = false;
+		LockSupport.unpark(mThread);
+		boolean interrupted = false;
+		while (mThread.isAlive()) {
+			try {
+				mThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (mTrack != null) {
+			mTrack.release();
+			mTrack = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+		AudioTrack track = createTrack();
+		mTrack = track;
+		if (track == null) {
+			mRunning = false;
+			return;
+		}
+		// Catch up with the frame clock, plays may be queued already
+		mEnvelope.skip((long) ((System.nanoTime() - mIdleOrigin)
+				/ NANOS_PER_FRAME));
+		mBlockFrame = mEnvelope.getPosition();
+		mIdleOrigin = NOT_IDLE;
+		boolean playing = false;
+		int failures = 0;
+		while (mRunning) {
+			if (mSilentBlocks >= IDLE_BLOCKS && mTriggers.isEmpty()) {
+				if (playing) {
+					track.pause();
+					track.flush();
+					playing = false;
+					mWatchdog.outputStopped();
+				}
+				idle();
+				continue;
+			}
+			if (!playing) {
+				track.play();
+				playing = true;
+			}
+
+			final long start = mWatchdog.beginBlock();
+			render();
+			anchor();
+			mWatchdog.setLateGains(mEnvelope.getLateEvents());
+			mWatchdog.endBlock(start, BLOCK_FRAMES, SAMPLE_RATE);
+			final int written = track.write(mOutput, 0, BLOCK_FRAMES);
+			if (written == BLOCK_FRAMES) {
+				failures = 0;
+				mWatchdog.blockWritten(mBufferNanos);
+				continue;
+			}
+
+			// A negative error code or a short write, retrying the same
+			// track would spin without blocking
+			LL.error("AudioEngine: track write returned " + written
+					+ ", restarting track");
+			mWatchdog.writeFailed(written);
+			mWatchdog.outputStopped();
+			track.release();
+			playing = false;
+			track = ++failures <= MAX_RESTARTS ? createTrack() : null;
+			mTrack = track;
+			if (track == null) {
+				LL.error("AudioEngine: giving up after " + failures
+						+ " failed writes");
+				mRunning = false;
+				return;
+			}
+			mWatchdog.trackRestarted();
+		}
+		track.stop();
+	}
+
+	/**
+	 * Park until the next play and advance the frame clock by the time spent
+	 * parked.
+	 */
+	private void idle() {
+		final long parked = System.nanoTime();
+		mIdleOrigin = parked
+				- (long) (mEnvelope.getPosition() * NANOS_PER_FRAME);
+		LockSupport.park();
+		mEnvelope.skip((long) ((System.nanoTime() - parked) / NANOS_PER_FRAME));
+		mBlockFrame = mEnvelope.getPosition();
+		mIdleOrigin = NOT_IDLE;
+	}
+
+	/**
+	 * Move the frame anchor towards the block just rendered. Blocking writes
+	 * pace the loop, so the block start follows uptime with the jitter of the
+	 * track buffer, which the smoothing takes out.
+	 */
+	private void anchor() {
+		final long measured = mBlockFrame - frames(SystemClock.uptimeMillis());
+		final long base = mFrameBase;
+		mFrameBase = base + ((measured - base) >> ANCHOR_SMOOTHING);
+	}
+
+	private void render() {
+		final long blockStart = mEnvelope.getPosition();
+		mBlockFrame = blockStart;
+		final float[] mix = mMix;
+		Arrays.fill(mix, 0);
+
+		// Mix up to each trigger due in this block, then start its voice
+		final TriggerQueue triggers = mTriggers;
+		triggers.drain();
+		boolean silent = triggers.isEmpty();
+		int frame = 0;
+		while (true) {
+			final long next = triggers.peekFrame();
+			final int end = next < blockStart + BLOCK_FRAMES ? (int) Math.max(
+					frame, next - blockStart) : BLOCK_FRAMES;
+			if (mixVoices(frame, end - frame))
+				silent = false;
+			frame = end;
+			if (frame == BLOCK_FRAMES)
+				break;
+			startVoice(next, blockStart + frame);
+		}
+		mSilentBlocks = silent ? mSilentBlocks + 1 : 0;
+
+		mEnvelope.process(mix, 0, BLOCK_FRAMES, 1);
+		mEffects.process(mix, 0, BLOCK_FRAMES);
+
+		final short[] output = mOutput;
+		for (int i = 0; i < BLOCK_FRAMES; i++) {
+			final int s = Math.round(mix[i] * 32767);
+			output[i] = (short) (s > 32767 ? 32767 : s < -32768 ? -32768 : s);
+		}
+	}
+
+	/**
+	 * Start the next trigger on the oldest voice.
+	 *
+	 * @param target
+	 *            frame the trigger was scheduled for
+	 * @param frame
+	 *            frame it actually starts at
+	 */
+	private void startVoice(long target, long frame) {
+		final TriggerQueue triggers = mTriggers;
+		final int voice = mNextVoice;
+		mVoiceData[voice] = triggers.peekData();
+		mVoicePosition[voice] = 0;
+		mVoiceStep[voice] = triggers.peekStep();
+		triggers.pop();
+		mNextVoice = (voice + 1) % mVoiceData.length;
+		mWatchdog.triggerStarted(target, frame);
+	}
+
+	/**
+	 * Mix all playing voices into a part of the block.
+	 *
+	 * @return true if a voice was playing
+	 */
+	private boolean mixVoices(int offset, int frames) {
+		boolean playing = false;
+		for (int v = 0; v < mVoiceData.length; v++) {
+			final PcmData data = mVoiceData[v];
+			if (data == null)
+				continue;
+			playing = true;
+			mVoicePosition[v] = data.mix(mVoicePosition[v], mVoiceStep[v], 1,
+					mMix, offset, frames, 1);
+			if (mVoicePosition[v] >= data.getFrames())
+				mVoiceData[v] = null;
+		}
+		return playing;
+	}
+}
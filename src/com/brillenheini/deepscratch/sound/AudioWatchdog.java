@@ -0,0 +1,433 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.io.PrintWriter;
+
+/**
+ * Watch the audio path for missed deadlines. Every rendered block is timed
+ * against the playback duration of the audio it produces, a block that takes
+ * longer counts as late. The time between the end of one write to the output
+ * and the start of the next is checked against the audio the output buffers.
+ * If more time passed than the full buffer plays, the output ran dry and an
+ * underrun is counted, whatever the cause: a slow block, preemption or a GC
+ * pause. Plays that do not fit into the play queue are counted as failed,
+ * plays of clips that are not decoded yet as not ready. Gain changes are
+ * counted with the ones dropped from a full queue and the ones applied after
+ * their frame.
+ * Sounds scheduled for a frame are checked against the frame they actually
+ * start at.
+ * <p>
+ * The most recent blocks are kept in a ring of fixed size, the worst blocks
+ * since the start in a small table of fixed size, so a stutter is still there
+ * when the dump is taken. The memory used does not grow no matter how long
+ * the app runs. Each counter has a single writer, readers from other threads
+ * may see slightly stale values which is good enough for diagnostics.
+ */
+public final class AudioWatchdog {
+	/** Number of blocks kept in history, must be a power of two. */
+	private static final int HISTORY_SIZE = 256;
+	/** Number of worst blocks kept and printed. */
+	private static final int WORST_SIZE = 8;
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	// Block history, written by the render thread only
+	private final long[] mBlockStart = new long[HISTORY_SIZE];
+	private final long[] mBlockDuration = new long[HISTORY_SIZE];
+	private final long[] mBlockDeadline = new long[HISTORY_SIZE];
+	private final long[] mBlockGap = new long[HISTORY_SIZE];
+	private final long[] mBlockBuffered = new long[HISTORY_SIZE];
+	private volatile int mBlocks;
+	private volatile int mLateBlocks;
+	private volatile int mUnderruns;
+	private volatile long mMaxBlockDuration;
+	private volatile long mMaxGap;
+
+	// Worst blocks since the start, written by the render thread only
+	private final long[] mWorstStart = new long[WORST_SIZE];
+	private final long[] mWorstDuration = new long[WORST_SIZE];
+	private final long[] mWorstDeadline = new long[WORST_SIZE];
+	private final long[] mWorstGap = new long[WORST_SIZE];
+	private final long[] mWorstBuffered = new long[WORST_SIZE];
+	private final double[] mWorstLoad = new double[WORST_SIZE];
+
+	// Output, render thread only. mLastWrite is 0 while the output is stopped.
+	private long mLastWrite;
+	private long mBuffered;
+
+	// Plays, written by the thread calling play
+	private volatile int mPlays;
+	private volatile int mFailedPlays;
+	private volatile int mNotReadyPlays;
+	private volatile long mMaxPlayDuration;
+
+	// Gain changes, written by the thread changing the gain
+	private volatile int mGains;
+	private volatile int mDroppedGains;
+	// Written by the render thread
+	private volatile int mLateGains;
+
+	// Scheduled starts, written by the render thread only
+	private volatile int mTriggers;
+	private volatile int mLateTriggers;
+	private volatile long mLateFrames;
+	private volatile long mMaxLateFrames;
+
+	// Output errors, written by the render thread only
+	private volatile int mWriteErrors;
+	private volatile int mLastWriteError;
+	private volatile int mTrackRestarts;
+
+	/**
+	 * Call before rendering a block.
+	 *
+	 * @return start time to pass to {@link #endBlock(long, int, int)}
+	 */
+	public long beginBlock() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Call after a block has been rendered, before it is written to the
+	 * output.
+	 *
+	 * @param start
+	 *            the value returned by {@link #beginBlock()}
+	 * @param frames
+	 *            number of frames in the block
+	 * @param sampleRate
+	 *            in frames per second
+	 */
+	public void endBlock(long start, int frames, int sampleRate) {
+		endBlock(start, System.nanoTime(), frames * NANOS_PER_SECOND
+				/ sampleRate);
+	}
+
+	/**
+	 * @param end
+	 *            value of {@link System#nanoTime()} after rendering
+	 * @param deadline
+	 *            time in nanoseconds the block may take to render
+	 */
+	void endBlock(long start, long end, long deadline) {
+		final long duration = end - start;
+		final long gap = mLastWrite != 0 ? end - mLastWrite : 0;
+		final int blocks = mBlocks;
+		final int i = blocks & (HISTORY_SIZE - 1);
+		mBlockStart[i] = start;
+		mBlockDuration[i] = duration;
+		mBlockDeadline[i] = deadline;
+		mBlockGap[i] = gap;
+		mBlockBuffered[i] = mBuffered;
+		if (duration > deadline)
+			mLateBlocks++;
+		if (duration > mMaxBlockDuration)
+			mMaxBlockDuration = duration;
+		if (mLastWrite != 0) {
+			if (gap > mBuffered)
+				mUnderruns++;
+			if (gap > mMaxGap)
+				mMaxGap = gap;
+		}
+		keepWorst(i);
+		mBlocks = blocks + 1;
+	}
+
+	/**
+	 * Call after a block has been written to the output.
+	 *
+	 * @param buffered
+	 *            time in nanoseconds the full output buffer plays
+	 */
+	public void blockWritten(long buffered) {
+		blockWritten(System.nanoTime(), buffered);
+	}
+
+	void blockWritten(long time, long buffered) {
+		mLastWrite = time;
+		mBuffered = buffered;
+	}
+
+	/**
+	 * Call when writing a block to the output failed.
+	 *
+	 * @param result
+	 *            value returned by the write, an error code or the number of
+	 *            frames written
+	 */
+	public void writeFailed(int result) {
+		mWriteErrors++;
+		mLastWriteError = result;
+	}
+
+	/**
+	 * Call when the output has been replaced after a failed write.
+	 */
+	public void trackRestarted() {
+		mTrackRestarts++;
+	}
+
+	/**
+	 * Call when the output is paused, the time until the next block is not
+	 * an underrun.
+	 */
+	public void outputStopped() {
+		mLastWrite = 0;
+	}
+
+	/**
+	 * Replace the least bad of the worst blocks if a history entry is worse.
+	 */
+	private void keepWorst(int i) {
+		final double load = load(mBlockDuration[i], mBlockDeadline[i],
+				mBlockGap[i], mBlockBuffered[i]);
+		int least = 0;
+		for (int w = 1; w < WORST_SIZE; w++)
+			if (mWorstLoad[w] < mWorstLoad[least])
+				least = w;
+		if (load <= mWorstLoad[least])
+			return;
+		mWorstStart[least] = mBlockStart[i];
+		mWorstDuration[least] = mBlockDuration[i];
+		mWorstDeadline[least] = mBlockDeadline[i];
+		mWorstGap[least] = mBlockGap[i];
+		mWorstBuffered[least] = mBlockBuffered[i];
+		mWorstLoad[least] = load;
+	}
+
+	/**
+	 * Call after a play has been handed to the render loop.
+	 *
+	 * @param start
+	 *            value of {@link System#nanoTime()} before calling play
+	 * @param success
+	 *            false if the play failed
+	 */
+	public void playFinished(long start, boolean success) {
+		final long duration = System.nanoTime() - start;
+		mPlays++;
+		if (!success)
+			mFailedPlays++;
+		if (duration > mMaxPlayDuration)
+			mMaxPlayDuration = duration;
+	}
+
+	/**
+	 * Call after posting a gain change.
+	 *
+	 * @param success
+	 *            false if the change was dropped
+	 */
+	public void gainPosted(boolean success) {
+		mGains++;
+		if (!success)
+			mDroppedGains++;
+	}
+
+	/**
+	 * @param lateGains
+	 *            number of gain changes applied after their frame so far, see
+	 *            {@link GainEnvelope#getLateEvents()}
+	 */
+	public void setLateGains(int lateGains) {
+		mLateGains = lateGains;
+	}
+
+	/**
+	 * Call when the render loop starts a scheduled sound.
+	 *
+	 * @param target
+	 *            frame the sound was scheduled for
+	 * @param frame
+	 *            frame the sound starts at
+	 */
+	public void triggerStarted(long target, long frame) {
+		mTriggers++;
+		final long late = frame - target;
+		if (late > 0) {
+			mLateTriggers++;
+			mLateFrames += late;
+			if (late > mMaxLateFrames)
+				mMaxLateFrames = late;
+		}
+	}
+
+	/**
+	 * Call instead of playing a clip that is not ready.
+	 */
+	public void playNotReady() {
+		mPlays++;
+		mNotReadyPlays++;
+	}
+
+	public int getBlocks() {
+		return mBlocks;
+	}
+
+	/**
+	 * @return number of blocks that took longer to render than they play
+	 */
+	public int getLateBlocks() {
+		return mLateBlocks;
+	}
+
+	/**
+	 * @return number of times the output ran dry between two writes
+	 */
+	public int getUnderruns() {
+		return mUnderruns;
+	}
+
+	/**
+	 * @return number of blocks that could not be written to the output
+	 */
+	public int getWriteErrors() {
+		return mWriteErrors;
+	}
+
+	public int getTrackRestarts() {
+		return mTrackRestarts;
+	}
+
+	public int getPlays() {
+		return mPlays;
+	}
+
+	public int getFailedPlays() {
+		return mFailedPlays;
+	}
+
+	public int getNotReadyPlays() {
+		return mNotReadyPlays;
+	}
+
+	public int getTriggers() {
+		return mTriggers;
+	}
+
+	/**
+	 * @return number of scheduled sounds that started after their frame
+	 */
+	public int getLateTriggers() {
+		return mLateTriggers;
+	}
+
+	/**
+	 * @return largest distance in frames between the scheduled and the actual
+	 *         start of a sound
+	 */
+	public long getMaxLateFrames() {
+		return mMaxLateFrames;
+	}
+
+	/**
+	 * Print the counters, the worst blocks since the start and the worst
+	 * blocks of the recent history, e.g. from {@link android.app.Activity#dump}.
+	 * Blocks are ranked by the larger of the ratios of render time to deadline
+	 * and of the time since the previous write to the buffered audio.
+	 */
+	public void dump(String prefix, PrintWriter writer) {
+		final long now = System.nanoTime();
+		final int blocks = mBlocks;
+		final int size = Math.min(blocks, HISTORY_SIZE);
+
+		writer.print(prefix);
+		writer.println("AudioWatchdog:");
+		writer.print(prefix);
+		writer.println("  blocks=" + blocks + " late=" + mLateBlocks
+				+ " maxBlock=" + micros(mMaxBlockDuration) + "us underruns="
+				+ mUnderruns + " maxGap=" + micros(mMaxGap) + "us");
+		writer.print(prefix);
+		writer.println("  writeErrors=" + mWriteErrors + " lastError="
+				+ mLastWriteError + " restarts=" + mTrackRestarts);
+		writer.print(prefix);
+		writer.println("  plays=" + mPlays + " failed=" + mFailedPlays
+				+ " notReady=" + mNotReadyPlays + " maxPlay="
+				+ micros(mMaxPlayDuration) + "us");
+		writer.print(prefix);
+		writer.println("  gains=" + mGains + " dropped=" + mDroppedGains
+				+ " late=" + mLateGains);
+		final int late = mLateTriggers;
+		writer.print(prefix);
+		writer.println("  triggers=" + mTriggers + " late=" + late
+				+ " meanLate=" + (late > 0 ? mLateFrames / late : 0)
+				+ " maxLate=" + mMaxLateFrames + " frames");
+
+		writer.print(prefix);
+		writer.println("  Worst blocks:");
+		final boolean[] printed = new boolean[WORST_SIZE];
+		for (int n = 0; n < WORST_SIZE; n++) {
+			int w = -1;
+			for (int j = 0; j < WORST_SIZE; j++)
+				if (!printed[j] && mWorstLoad[j] > 0
+						&& (w < 0 || mWorstLoad[j] > mWorstLoad[w]))
+					w = j;
+			if (w < 0)
+				break;
+			printed[w] = true;
+			printBlock(prefix, writer, now, mWorstStart[w], mWorstDuration[w],
+					mWorstDeadline[w], mWorstGap[w], mWorstBuffered[w]);
+		}
+
+		// Select the worst recent blocks, the history is small enough to
+		// search it
+		writer.print(prefix);
+		writer.println("  Worst recent blocks:");
+		final boolean[] taken = new boolean[size];
+		for (int n = 0; n < Math.min(size, WORST_SIZE); n++) {
+			int worst = -1;
+			double worstLoad = -1;
+			for (int i = 0; i < size; i++) {
+				final double load = load(mBlockDuration[i], mBlockDeadline[i],
+						mBlockGap[i], mBlockBuffered[i]);
+				if (!taken[i] && load > worstLoad) {
+					worst = i;
+					worstLoad = load;
+				}
+			}
+			taken[worst] = true;
+			printBlock(prefix, writer, now, mBlockStart[worst],
+					mBlockDuration[worst], mBlockDeadline[worst],
+					mBlockGap[worst], mBlockBuffered[worst]);
+		}
+	}
+
+	private static void printBlock(String prefix, PrintWriter writer,
+			long now, long start, long duration, long deadline, long gap,
+			long buffered) {
+		writer.print(prefix);
+		writer.println("    render " + micros(duration) + "us of "
+				+ micros(deadline) + "us, gap " + micros(gap) + "us of "
+				+ micros(buffered) + "us, " + (now - start) / 1000000
+				+ "ms ago");
+	}
+
+	private static double load(long duration, long deadline, long gap,
+			long buffered) {
+		final double render = deadline > 0 ? (double) duration / deadline : 0;
+		final double output = buffered > 0 ? (double) gap / buffered : 0;
+		return Math.max(render, output);
+	}
+
+	private static long micros(long nanos) {
+		return nanos / 1000;
+	}
+}
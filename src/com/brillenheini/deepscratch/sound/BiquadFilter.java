@@ -0,0 +1,203 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+/**
+ * Low or high pass filter for mono or stereo blocks. The cutoff frequency can
+ * be set from any thread, the render thread glides to it in small steps so
+ * sweeps do not zipper.
+ *
+ * @see <a href="http://www.musicdsp.org/files/Audio-EQ-Cookbook.txt">Audio EQ
+ *      Cookbook</a>
+ */
+public final class BiquadFilter {
+	public static final int LOW_PASS = 0;
+	public static final int HIGH_PASS = 1;
+
+	/** Frames between coefficient updates while gliding. */
+	private static final int STEP_FRAMES = 32;
+	/** Fraction of the remaining distance covered per step. */
+	private static final float GLIDE = 0.25f;
+	private static final float Q_DEFAULT = 0.7071f;
+
+	private final int mSampleRate;
+
+	// Parameters, written by any thread
+	private volatile int mMode = LOW_PASS;
+	private volatile float mTargetCutoff;
+	private volatile float mQ = Q_DEFAULT;
+	private volatile boolean mEnabled = false;
+
+	// Render state
+	private int mCurrentMode = -1;
+	private float mCutoff;
+	private float mCurrentQ;
+	private float mB0, mB1, mB2, mA1, mA2;
+	// Delay elements for left and right channel
+	private float mX1L, mX2L, mY1L, mY2L;
+	private float mX1R, mX2R, mY1R, mY2R;
+
+	/**
+	 * @param sampleRate
+	 *            in frames per second
+	 */
+	public BiquadFilter(int sampleRate) {
+		mSampleRate = sampleRate;
+		mTargetCutoff = sampleRate * 0.45f;
+		mCutoff = mTargetCutoff;
+	}
+
+	public void setMode(int mode) {
+		mMode = mode;
+	}
+
+	/**
+	 * @param hz
+	 *            cutoff frequency, clamped to the usable range
+	 */
+	public void setCutoff(float hz) {
+		mTargetCutoff = Math.max(20, Math.min(hz, mSampleRate * 0.45f));
+	}
+
+	public void setQ(float q) {
+		mQ = q;
+	}
+
+	public void setEnabled(boolean enabled) {
+		mEnabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Filter a block of interleaved samples in place.
+	 *
+	 * @param channels
+	 *            1 or 2
+	 */
+	public void process(float[] buffer, int offset, int frames, int channels) {
+		if (!mEnabled) {
+			mCurrentMode = -1;
+			return;
+		}
+
+		if (mCurrentMode != mMode) {
+			// Start clean when switched on or changing the mode
+			mCurrentMode = mMode;
+			mX1L = mX2L = mY1L = mY2L = 0;
+			mX1R = mX2R = mY1R = mY2R = 0;
+			mCutoff = mTargetCutoff;
+			updateCoefficients();
+		}
+
+		for (int frame = 0; frame < frames; frame += STEP_FRAMES) {
+			glide();
+			final int n = Math.min(STEP_FRAMES, frames - frame);
+			if (channels == 1)
+				processMono(buffer, offset + frame, n);
+			else
+				processStereo(buffer, offset + frame * 2, n);
+		}
+	}
+
+	private void glide() {
+		final float target = mTargetCutoff;
+		final float q = mQ;
+		if (mCutoff == target && mCurrentQ == q)
+			return;
+		float distance = target - mCutoff;
+		if (Math.abs(distance) < 1)
+			mCutoff = target;
+		else
+			mCutoff += distance * GLIDE;
+		updateCoefficients();
+	}
+
+	private void updateCoefficients() {
+		mCurrentQ = mQ;
+		final double w0 = 2 * Math.PI * mCutoff / mSampleRate;
+		final double cos = Math.cos(w0);
+		final double alpha = Math.sin(w0) / (2 * mCurrentQ);
+		final double a0 = 1 + alpha;
+		final double b1 = mCurrentMode == HIGH_PASS ? -(1 + cos) : 1 - cos;
+		final double b0 = mCurrentMode == HIGH_PASS ? (1 + cos) / 2
+				: (1 - cos) / 2;
+		mB0 = (float) (b0 / a0);
+		mB1 = (float) (b1 / a0);
+		mB2 = mB0;
+		mA1 = (float) (-2 * cos / a0);
+		mA2 = (float) ((1 - alpha) / a0);
+	}
+
+	private void processMono(float[] buffer, int i, int frames) {
+		final float b0 = mB0, b1 = mB1, b2 = mB2, a1 = mA1, a2 = mA2;
+		float x1 = mX1L, x2 = mX2L, y1 = mY1L, y2 = mY2L;
+		final int end = i + frames;
+		for (; i < end; i++) {
+			final float x = buffer[i];
+			final float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+			x2 = x1;
+			x1 = x;
+			y2 = y1;
+			y1 = y;
+			buffer[i] = y;
+		}
+		mX1L = x1;
+		mX2L = x2;
+		mY1L = y1;
+		mY2L = y2;
+	}
+
+	private void processStereo(float[] buffer, int i, int frames) {
+		final float b0 = mB0, b1 = mB1, b2 = mB2, a1 = mA1, a2 = mA2;
+		float x1l = mX1L, x2l = mX2L, y1l = mY1L, y2l = mY2L;
+		float x1r = mX1R, x2r = mX2R, y1r = mY1R, y2r = mY2R;
+		final int end = i + frames * 2;
+		for (; i < end; i += 2) {
+			final float xl = buffer[i];
+			final float yl = b0 * xl + b1 * x1l + b2 * x2l - a1 * y1l - a2
+					* y2l;
+			x2l = x1l;
+			x1l = xl;
+			y2l = y1l;
+			y1l = yl;
+			buffer[i] = yl;
+
+			final float xr = buffer[i + 1];
+			final float yr = b0 * xr + b1 * x1r + b2 * x2r - a1 * y1r - a2
+					* y2r;
+			x2r = x1r;
+			x1r = xr;
+			y2r = y1r;
+			y1r = yr;
+			buffer[i + 1] = yr;
+		}
+		mX1L = x1l;
+		mX2L = x2l;
+		mY1L = y1l;
+		mY2L = y2l;
+		mX1R = x1r;
+		mX2R = x2r;
+		mY1R = y1r;
+		mY2R = y2r;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.util.Arrays;
+
+/**
+ * Feedback echo. The delay line is allocated once for the longest delay,
+ * parameters can be changed from any thread and are picked up at the start of
+ * the next block.
+ */
+public final class Echo {
+	/** Longest possible delay. */
+	public static final int MAX_DELAY_MILLIS = 1000;
+	/** Feedback is limited below 1 so the echo always dies away. */
+	private static final float MAX_FEEDBACK = 0.95f;
+
+	private final int mSampleRate;
+	private final int mChannels;
+	private final float[] mLine;
+
+	// Parameters, written by any thread
+	private volatile int mDelayFrames;
+	private volatile float mFeedback = 0.4f;
+	private volatile float mMix = 0.3f;
+	private volatile boolean mEnabled = false;
+
+	// Render state
+	private int mPosition;
+	private boolean mClear = false;
+
+	/**
+	 * @param sampleRate
+	 *            in frames per second
+	 * @param channels
+	 *            number of interleaved channels of the processed blocks
+	 */
+	public Echo(int sampleRate, int channels) {
+		mSampleRate = sampleRate;
+		mChannels = channels;
+		mLine = new float[sampleRate * MAX_DELAY_MILLIS / 1000 * channels];
+		setDelay(250);
+	}
+
+	/**
+	 * @param millis
+	 *            delay, up to {@link #MAX_DELAY_MILLIS}
+	 */
+	public void setDelay(int millis) {
+		int frames = mSampleRate * Math.min(millis, MAX_DELAY_MILLIS) / 1000;
+		mDelayFrames = Math.max(1, frames);
+	}
+
+	/**
+	 * @param feedback
+	 *            part of the echo fed back into the delay line, 0 to 1
+	 */
+	public void setFeedback(float feedback) {
+		mFeedback = Math.max(0, Math.min(feedback, MAX_FEEDBACK));
+	}
+
+	/**
+	 * @param mix
+	 *            level of the echo added to the dry signal, 0 to 1
+	 */
+	public void setMix(float mix) {
+		mMix = Math.max(0, Math.min(mix, 1));
+	}
+
+	public void setEnabled(boolean enabled) {
+		mEnabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Add the echo to a block of interleaved samples in place.
+	 */
+	public void process(float[] buffer, int offset, int frames) {
+		if (!mEnabled) {
+			// Do not play old echoes when switched on again
+			mClear = true;
+			return;
+		}
+		if (mClear) {
+			Arrays.fill(mLine, 0);
+			mClear = false;
+		}
+
+		final float[] line = mLine;
+		final int length = mDelayFrames * mChannels;
+		final float feedback = mFeedback;
+		final float mix = mMix;
+		int position = mPosition;
+		if (position >= length)
+			position = 0;
+
+		final int end = offset + frames * mChannels;
+		for (int i = offset; i < end; i++) {
+			final float dry = buffer[i];
+			final float wet = line[position];
+			line[position] = dry + wet * feedback;
+			buffer[i] = dry + wet * mix;
+			if (++position == length)
+				position = 0;
+		}
+		mPosition = position;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+/**
+ * Effects applied to the scratch output: a filter followed by an echo. The
+ * effects are processed one after the other on whole blocks, there is no call
+ * per sample. Parameters are set on the effects returned by the getters from
+ * the UI thread, no locking is needed.
+ */
+public final class EffectsChain {
+	/** Cutoff range of {@link #setFilterAmount(float)}. */
+	private static final float CUTOFF_MIN = 200;
+	private static final float CUTOFF_MAX = 16000;
+
+	private final int mChannels;
+	private final BiquadFilter mFilter;
+	private final Echo mEcho;
+
+	/**
+	 * @param sampleRate
+	 *            in frames per second
+	 * @param channels
+	 *            1 or 2
+	 */
+	public EffectsChain(int sampleRate, int channels) {
+		mChannels = channels;
+		mFilter = new BiquadFilter(sampleRate);
+		mEcho = new Echo(sampleRate, channels);
+	}
+
+	public BiquadFilter getFilter() {
+		return mFilter;
+	}
+
+	public Echo getEcho() {
+		return mEcho;
+	}
+
+	/**
+	 * Set the filter cutoff on an exponential scale, e.g. from the scratch
+	 * velocity. For a low pass 0 is dull and 1 is open, for a high pass the
+	 * other way round.
+	 *
+	 * @param amount
+	 *            0 to 1
+	 */
+	public void setFilterAmount(float amount) {
+		amount = Math.max(0, Math.min(amount, 1));
+		mFilter.setCutoff(CUTOFF_MIN
+				* (float) Math.pow(CUTOFF_MAX / CUTOFF_MIN, amount));
+	}
+
+	/**
+	 * Process a block of interleaved samples in place.
+	 */
+	public void process(float[] buffer, int offset, int frames) {
+		mFilter.process(buffer, offset, frames, mChannels);
+		mEcho.process(buffer, offset, frames);
+	}
+}
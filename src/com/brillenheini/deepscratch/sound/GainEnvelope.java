@@ -0,0 +1,218 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+/**
+ * Gain automation for the render loop. The gesture code posts level changes
+ * stamped with the frame they should happen at, the render loop applies them
+ * exactly at that frame with a short linear ramp against clicks. This allows
+ * cutting the sound on and off for transformer and chirp scratches much faster
+ * and more precisely than changing the volume of a stream.
+ * <p>
+ * Events are passed through a lock free queue of fixed size. There must be
+ * only one thread posting events and only the render thread calling
+ * {@link #process(float[], int, int, int)}. Events have to be posted in the
+ * order of their frames. No memory is allocated after construction.
+ */
+public final class GainEnvelope {
+	/** Size of the event queue, must be a power of two. */
+	private static final int QUEUE_SIZE = 64;
+	/** Duration of the ramp against clicks. */
+	private static final int RAMP_MILLIS = 2;
+
+	private final int mRampFrames;
+
+	// Event queue, mWrite is only written by the posting thread and mRead only
+	// by the render thread
+	private final long[] mEventFrame = new long[QUEUE_SIZE];
+	private final float[] mEventLevel = new float[QUEUE_SIZE];
+	private volatile int mWrite;
+	private volatile int mRead;
+
+	// Render state
+	private long mPosition;
+	private float mGain = 1;
+	private float mTarget = 1;
+	private float mStep;
+	private int mRampLeft;
+	private volatile int mLateEvents;
+
+	/**
+	 * @param sampleRate
+	 *            in frames per second
+	 */
+	public GainEnvelope(int sampleRate) {
+		mRampFrames = Math.max(1, sampleRate * RAMP_MILLIS / 1000);
+	}
+
+	/**
+	 * Change the gain at a frame.
+	 *
+	 * @param frame
+	 *            position in frames counted from the first processed frame
+	 * @param level
+	 *            new gain, 0 to cut the sound
+	 * @return false if the queue is full and the event was dropped
+	 */
+	public boolean post(long frame, float level) {
+		final int write = mWrite;
+		if (write - mRead == QUEUE_SIZE)
+			return false;
+		final int i = write & (QUEUE_SIZE - 1);
+		mEventFrame[i] = frame;
+		mEventLevel[i] = level;
+		mWrite = write + 1;
+		return true;
+	}
+
+	/**
+	 * Open the sound at a frame.
+	 */
+	public boolean on(long frame) {
+		return post(frame, 1);
+	}
+
+	/**
+	 * Cut the sound at a frame.
+	 */
+	public boolean off(long frame) {
+		return post(frame, 0);
+	}
+
+	/**
+	 * @return the frame position of the next frame to be processed
+	 */
+	public long getPosition() {
+		return mPosition;
+	}
+
+	/**
+	 * @return number of events that arrived after their frame had been
+	 *         processed and were applied late
+	 */
+	public int getLateEvents() {
+		return mLateEvents;
+	}
+
+	/**
+	 * Apply the gain to a block of interleaved samples and advance the
+	 * position by the number of frames.
+	 *
+	 * @param buffer
+	 *            interleaved samples
+	 * @param offset
+	 *            index of the first sample in the buffer
+	 * @param frames
+	 *            number of frames to process
+	 * @param channels
+	 *            number of interleaved channels
+	 */
+	public void process(float[] buffer, int offset, int frames, int channels) {
+		final long start = mPosition;
+		int frame = 0;
+		while (frame < frames) {
+			// Start all events due at this frame
+			int end = frames;
+			int read = mRead;
+			while (read != mWrite) {
+				final int i = read & (QUEUE_SIZE - 1);
+				final long due = mEventFrame[i] - start;
+				if (due > frame) {
+					if (due < end)
+						end = (int) due;
+					break;
+				}
+				if (due < frame)
+					mLateEvents++;
+				startRamp(mEventLevel[i]);
+				mRead = ++read;
+			}
+
+			// Render until the next event
+			apply(buffer, offset + frame * channels, end - frame, channels);
+			frame = end;
+		}
+		mPosition = start + frames;
+	}
+
+	/**
+	 * Advance the position without processing samples, while the render loop
+	 * is idle. Events due in the skipped frames are applied at once without a
+	 * ramp and do not count as late.
+	 *
+	 * @param frames
+	 *            number of frames to skip
+	 */
+	public void skip(long frames) {
+		if (frames <= 0)
+			return;
+		final long end = mPosition + frames;
+		int read = mRead;
+		while (read != mWrite) {
+			final int i = read & (QUEUE_SIZE - 1);
+			if (mEventFrame[i] >= end)
+				break;
+			mTarget = mEventLevel[i];
+			mRead = ++read;
+		}
+		mGain = mTarget;
+		mRampLeft = 0;
+		mPosition = end;
+	}
+
+	private void startRamp(float target) {
+		mTarget = target;
+		mRampLeft = mRampFrames;
+		mStep = (target - mGain) / mRampFrames;
+	}
+
+	/**
+	 * Apply the gain to a segment without events.
+	 */
+	private void apply(float[] buffer, int offset, int frames, int channels) {
+		int frame = 0;
+		int i = offset;
+
+		// Ramp
+		if (mRampLeft > 0) {
+			final int ramp = Math.min(frames, mRampLeft);
+			float gain = mGain;
+			final float step = mStep;
+			for (; frame < ramp; frame++) {
+				gain += step;
+				for (int c = 0; c < channels; c++)
+					buffer[i++] *= gain;
+			}
+			mRampLeft -= ramp;
+			mGain = mRampLeft > 0 ? gain : mTarget;
+		}
+
+		// Constant gain
+		final float gain = mGain;
+		final int end = offset + frames * channels;
+		if (gain == 0) {
+			for (; i < end; i++)
+				buffer[i] = 0;
+		} else if (gain != 1) {
+			for (; i < end; i++)
+				buffer[i] *= gain;
+		}
+	}
+}
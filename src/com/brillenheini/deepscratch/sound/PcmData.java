@@ -0,0 +1,184 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decoded audio kept in memory as 16 bit PCM. Compared to float samples this
+ * halves the memory, downmixing a stereo scratch sample to mono halves it
+ * again. The data is either a <code>short</code> array or a direct buffer
+ * outside of the Java heap, which is meant for large tracks on devices with a
+ * small heap limit.
+ * <p>
+ * Samples are converted to float only while mixing them into a block of the
+ * render loop.
+ */
+public final class PcmData {
+	private static final float SCALE = 1f / 32768;
+
+	private final short[] mArray;
+	private final ShortBuffer mBuffer;
+	private final int mFrames;
+	private final int mChannels;
+	private final int mSampleRate;
+
+	private PcmData(short[] array, ShortBuffer buffer, int frames,
+			int channels, int sampleRate) {
+		mArray = array;
+		mBuffer = buffer;
+		mFrames = frames;
+		mChannels = channels;
+		mSampleRate = sampleRate;
+	}
+
+	/**
+	 * Store interleaved 16 bit samples.
+	 *
+	 * @param samples
+	 *            interleaved samples, not copied if neither downmixing nor a
+	 *            direct buffer is requested and the array has the exact size
+	 * @param frames
+	 *            number of frames in the array
+	 * @param channels
+	 *            1 or 2
+	 * @param sampleRate
+	 *            in frames per second
+	 * @param mono
+	 *            downmix stereo to mono
+	 * @param direct
+	 *            keep the data in a direct buffer instead of the heap
+	 */
+	public static PcmData create(short[] samples, int frames, int channels,
+			int sampleRate, boolean mono, boolean direct) {
+		short[] data = samples;
+		if (mono && channels == 2) {
+			data = new short[frames];
+			for (int i = 0; i < frames; i++)
+				data[i] = (short) ((samples[2 * i] + samples[2 * i + 1]) >> 1);
+			channels = 1;
+		}
+
+		final int length = frames * channels;
+		if (direct) {
+			ShortBuffer buffer = ByteBuffer.allocateDirect(length * 2)
+					.order(ByteOrder.nativeOrder()).asShortBuffer();
+			buffer.put(data, 0, length);
+			return new PcmData(null, buffer, frames, channels, sampleRate);
+		}
+		if (data.length != length) {
+			short[] trimmed = new short[length];
+			System.arraycopy(data, 0, trimmed, 0, length);
+			data = trimmed;
+		}
+		return new PcmData(data, null, frames, channels, sampleRate);
+	}
+
+	public int getFrames() {
+		return mFrames;
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	public int getSampleRate() {
+		return mSampleRate;
+	}
+
+	public boolean isDirect() {
+		return mBuffer != null;
+	}
+
+	/**
+	 * @return bytes used by the sample data
+	 */
+	public int getBytesResident() {
+		return mFrames * mChannels * 2;
+	}
+
+	/**
+	 * Mix frames into a block, resampled by linear interpolation.
+	 *
+	 * @param position
+	 *            frame position to start at, may be fractional
+	 * @param step
+	 *            frames to advance per output frame, 1 plays at the original
+	 *            speed if the sample rates match
+	 * @param gain
+	 *            multiplied with the samples
+	 * @param out
+	 *            interleaved block, the samples are added to it
+	 * @param offset
+	 *            index of the first sample in the block
+	 * @param frames
+	 *            number of frames to mix
+	 * @param outChannels
+	 *            number of channels of the block, 1 or 2
+	 * @return position after the last mixed frame, {@link #getFrames()} or
+	 *         more if the end was reached
+	 */
+	public double mix(double position, double step, float gain, float[] out,
+			int offset, int frames, int outChannels) {
+		final int last = mFrames - 1;
+		final float scale = gain * SCALE;
+		final boolean stereo = mChannels == 2;
+		final short[] array = mArray;
+		final ShortBuffer buffer = mBuffer;
+		int o = offset;
+		for (int frame = 0; frame < frames; frame++) {
+			if (position >= last) {
+				position = mFrames;
+				break;
+			}
+			final int i = (int) position;
+			final float f = (float) (position - i);
+			float l, r;
+			if (stereo) {
+				final int j = i * 2;
+				if (array != null) {
+					l = array[j] + f * (array[j + 2] - array[j]);
+					r = array[j + 1] + f * (array[j + 3] - array[j + 1]);
+				} else {
+					l = buffer.get(j) + f * (buffer.get(j + 2) - buffer.get(j));
+					r = buffer.get(j + 1) + f
+							* (buffer.get(j + 3) - buffer.get(j + 1));
+				}
+			} else {
+				if (array != null)
+					l = array[i] + f * (array[i + 1] - array[i]);
+				else
+					l = buffer.get(i) + f * (buffer.get(i + 1) - buffer.get(i));
+				r = l;
+			}
+
+			if (outChannels == 2) {
+				out[o++] += l * scale;
+				out[o++] += r * scale;
+			} else {
+				out[o++] += (l + r) * 0.5f * scale;
+			}
+			position += step;
+		}
+		return position;
+	}
+}
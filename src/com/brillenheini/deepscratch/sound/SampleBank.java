@@ -0,0 +1,287 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.brillenheini.deepscratch.log.LL;
+import com.brillenheini.deepscratch.vorbis.VorbisDecoder;
+
+/**
+ * Decoded clips of the samples. Clips are decoded in parallel on a small pool
+ * of background threads and kept in memory, so switching back to a sample is
+ * instant. Every clip is a future that is done when the clip is ready to play,
+ * callers never have to block. The time from loading a sample until all its
+ * clips are ready is logged and kept for {@link #dump(String, PrintWriter)}.
+ */
+public final class SampleBank {
+	/** Upper limit for decoding threads, one per clip of a sample. */
+	private static final int MAX_THREADS = 3;
+	/** Frames decoded per read. */
+	private static final int DECODE_FRAMES = 4096;
+
+	private final Context mContext;
+	private final ExecutorService mExecutor;
+
+	// Guarded by this
+	private final Map<Integer, Future<PcmData>> mClips =
+			new HashMap<Integer, Future<PcmData>>();
+	private final List<PendingSample> mPending = new ArrayList<PendingSample>();
+	private final Map<String, PendingSample> mReady =
+			new LinkedHashMap<String, PendingSample>();
+
+	/**
+	 * A sample waiting for its clips. It stays in {@link #mReady} once they
+	 * are decoded.
+	 */
+	private static final class PendingSample {
+		final String name;
+		final long start;
+		final List<Future<PcmData>> clips = new ArrayList<Future<PcmData>>(3);
+		long readyMillis;
+
+		PendingSample(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+
+		boolean isReady() {
+			for (Future<PcmData> clip : clips)
+				if (!clip.isDone())
+					return false;
+			return true;
+		}
+	}
+
+	public SampleBank(Context context) {
+		mContext = context.getApplicationContext();
+		final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime
+				.getRuntime().availableProcessors()));
+		mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int mCount = 0;
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				return new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Process.setThreadPriority(
+								Process.THREAD_PRIORITY_BACKGROUND);
+						r.run();
+					}
+				}, "SampleBank-" + ++mCount);
+			}
+		});
+	}
+
+	/**
+	 * Start decoding the clips of a sample that are not decoded or queued yet.
+	 * Returns immediately. The time until a sample is ready is only taken the
+	 * first time it is loaded.
+	 */
+	public synchronized void loadSample(Sample sample) {
+		if (mReady.containsKey(sample.getName()))
+			return;
+		for (PendingSample pending : mPending)
+			if (pending.name.equals(sample.getName()))
+				return;
+		final PendingSample pending = new PendingSample(sample.getName(),
+				SystemClock.uptimeMillis());
+		pending.clips.add(loadClip(sample.getSampleID()));
+		pending.clips.add(loadClip(sample.getForwardID()));
+		pending.clips.add(loadClip(sample.getBackwardID()));
+		mPending.add(pending);
+		// The clips may all be decoded already
+		checkPending();
+	}
+
+	/**
+	 * Start decoding a clip unless it is decoded or queued already.
+	 *
+	 * @param resID
+	 *            raw resource ID of an Ogg Vorbis file
+	 * @return future of the decoded clip, its value is null if decoding failed
+	 */
+	public synchronized Future<PcmData> loadClip(final int resID) {
+		Future<PcmData> clip = mClips.get(resID);
+		if (clip == null) {
+			FutureTask<PcmData> task = new FutureTask<PcmData>(
+					new Callable<PcmData>() {
+						@Override
+						public PcmData call() {
+							return decodeClip(mContext, resID);
+						}
+					}) {
+				@Override
+				protected void done() {
+					clipDone();
+				}
+			};
+			mExecutor.execute(task);
+			mClips.put(resID, task);
+			clip = task;
+		}
+		return clip;
+	}
+
+	/**
+	 * Run a task on a decoding thread after the clips queued so far have
+	 * started decoding.
+	 */
+	public void execute(Runnable task) {
+		mExecutor.execute(task);
+	}
+
+	/**
+	 * @return the decoded clip, null if it is not ready or decoding failed
+	 */
+	public static PcmData getIfReady(Future<PcmData> clip) {
+		if (clip == null || !clip.isDone())
+			return null;
+		try {
+			return clip.get();
+		} catch (ExecutionException ee) {
+			return null;
+		} catch (InterruptedException ie) {
+			return null;
+		}
+	}
+
+	private synchronized void clipDone() {
+		checkPending();
+	}
+
+	private void checkPending() {
+		// Cancelled clips are done too
+		if (mExecutor.isShutdown())
+			return;
+		for (int i = mPending.size() - 1; i >= 0; i--) {
+			final PendingSample pending = mPending.get(i);
+			if (pending.isReady()) {
+				pending.readyMillis = SystemClock.uptimeMillis() - pending.start;
+				mReady.put(pending.name, pending);
+				mPending.remove(i);
+				if (LL.isDebugEnabled())
+					LL.debug("SampleBank: " + pending.name + " ready in "
+							+ pending.readyMillis + "ms");
+			}
+		}
+	}
+
+	/**
+	 * Decode an Ogg Vorbis resource to mono 16 bit PCM.
+	 *
+	 * @return the decoded clip or null if decoding failed
+	 */
+	private static PcmData decodeClip(Context context, int resID) {
+		final long start = System.nanoTime();
+		final InputStream in = context.getResources().openRawResource(resID);
+		try {
+			final VorbisDecoder decoder = new VorbisDecoder(in);
+			final int channels = decoder.getChannels();
+			short[] samples = new short[DECODE_FRAMES * channels * 4];
+			int frames = 0;
+			while (true) {
+				if ((frames + DECODE_FRAMES) * channels > samples.length) {
+					short[] grown = new short[samples.length * 2];
+					System.arraycopy(samples, 0, grown, 0, frames * channels);
+					samples = grown;
+				}
+				int read = decoder.read(samples, frames * channels,
+						DECODE_FRAMES);
+				if (read < 0)
+					break;
+				frames += read;
+			}
+
+			if (LL.isDebugEnabled()) {
+				final long nanos = Math.max(1, System.nanoTime() - start);
+				LL.debug("decodeClip: " + resID + " " + frames + " frames in "
+						+ nanos / 1000 + "us, " + frames * 1000000000L / nanos
+						+ " frames/s");
+			}
+			return PcmData.create(samples, frames, channels,
+					decoder.getSampleRate(), true, false);
+		} catch (IOException ioe) {
+			LL.error("Error decoding clip " + resID, ioe);
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ioe) {
+				// nothing left to do
+			}
+		}
+	}
+
+	public synchronized void dump(String prefix, PrintWriter writer) {
+		int ready = 0;
+		int bytes = 0;
+		for (Future<PcmData> clip : mClips.values()) {
+			final PcmData data = getIfReady(clip);
+			if (data != null) {
+				ready++;
+				bytes += data.getBytesResident();
+			}
+		}
+		writer.print(prefix);
+		writer.println("SampleBank:");
+		writer.print(prefix);
+		writer.println("  clips=" + mClips.size() + " ready=" + ready
+				+ " bytes=" + bytes + " pending=" + mPending.size());
+		for (PendingSample sample : mReady.values()) {
+			// Clips shared with other samples are counted for each of them
+			int sampleBytes = 0;
+			for (Future<PcmData> clip : sample.clips) {
+				final PcmData data = getIfReady(clip);
+				if (data != null)
+					sampleBytes += data.getBytesResident();
+			}
+			writer.print(prefix);
+			writer.println("  " + sample.name + " ready in "
+					+ sample.readyMillis + "ms bytes=" + sampleBytes);
+		}
+	}
+
+	/**
+	 * Stop decoding. Clips decoded so far stay usable.
+	 */
+	public void close() {
+		mExecutor.shutdownNow();
+	}
+}
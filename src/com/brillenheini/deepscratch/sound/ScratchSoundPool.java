@@ -19,62 +19,172 @@
  */
 package com.brillenheini.deepscratch.sound;
 
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import android.content.Context;
-import android.media.AudioManager;
-import android.media.SoundPool;
 
 import com.brillenheini.deepscratch.log.LL;
-import com.brillenheini.deepscratch.view.Converter;
+import com.brillenheini.deepscratch.view.Dimension;
 
+/**
+ * The scratch sounds of the current sample. They are decoded into memory by a
+ * {@link SampleBank} and played by an {@link AudioEngine}.
+ */
 public class ScratchSoundPool {
-	private static final int VELOCITY_MIN = Converter.dipsToPix(100);
-	private static final int VELOCITY_MID = Converter.dipsToPix(800);
-	private static final int VELOCITY_MAX = Converter.dipsToPix(3000);
+	private static final Dimension VELOCITY_MIN = new Dimension(100);
+	private static final Dimension VELOCITY_MID = new Dimension(800);
+	private static final Dimension VELOCITY_MAX = new Dimension(3000);
 	private static final float PITCH_MIN = 0.5f;
 	private static final float PITCH_MID = 1.0f;
 	private static final float PITCH_MAX = 2.0f;
 
-	private SoundPool mPool;
+	/** Grids for {@link #setQuantization(float, int)}, notes per bar. */
+	public static final int QUANTIZE_OFF = 0;
+	public static final int QUANTIZE_QUARTER = 4;
+	public static final int QUANTIZE_EIGHTH = 8;
+	public static final int QUANTIZE_SIXTEENTH = 16;
+
+	private AudioEngine mEngine;
+	private boolean mEngineStarting;
+	private final SampleBank mBank;
+	private final AudioWatchdog mWatchdog = new AudioWatchdog();
+
+	// clips of the current sample, decoded on background threads
+	private volatile Future<PcmData> mSample;
+	private volatile Future<PcmData> mForward;
+	private volatile Future<PcmData> mBackward;
 
-	// samples
-	private int mSampleID = -1;
-	private int mForwardID = -1;
-	private int mBackwardID = -1;
+	// fader and quantization, set from the UI thread
+	private float mFader = 1;
+	private int mQuantize = QUANTIZE_OFF;
+	private double mGridFrames;
+	private long mGridOrigin;
 
-	public ScratchSoundPool() {
-		mPool = new SoundPool(1, AudioManager.STREAM_MUSIC, 0);
+	public ScratchSoundPool(Context context) {
+		mBank = new SampleBank(context);
+		mEngine = new AudioEngine(1, mWatchdog);
+	}
+
+	/**
+	 * Switch to the clips of a sample and start decoding the ones not decoded
+	 * yet. Returns immediately, clips play as soon as they are ready. The
+	 * first call also starts the engine on a decoding thread, so creating the
+	 * audio track does not hold up the UI thread.
+	 */
+	public synchronized void loadSample(Sample sample) {
+		if (mEngine == null)
+			return;
+		mBank.loadSample(sample);
+		mSample = mBank.loadClip(sample.getSampleID());
+		mForward = mBank.loadClip(sample.getForwardID());
+		mBackward = mBank.loadClip(sample.getBackwardID());
+		if (!mEngineStarting) {
+			mEngineStarting = true;
+			final AudioEngine engine = mEngine;
+			mBank.execute(new Runnable() {
+				@Override
+				public void run() {
+					engine.start();
+				}
+			});
+		}
 	}
 
-	public void loadSample(Context context, Sample sample) {
-		unloadSound(mSampleID);
-		unloadSound(mForwardID);
-		unloadSound(mBackwardID);
-		mSampleID = mPool.load(context, sample.getSampleID(), 1);
-		mForwardID = mPool.load(context, sample.getForwardID(), 1);
-		mBackwardID = mPool.load(context, sample.getBackwardID(), 1);
+	/**
+	 * Decode the clips of more samples in the background, so switching to them
+	 * is instant. Clips already requested are decoded first.
+	 */
+	public synchronized void preloadSamples(List<Sample> samples) {
+		if (mEngine == null)
+			return;
+		for (Sample sample : samples)
+			mBank.loadSample(sample);
 	}
 
-	private void unloadSound(int soundID) {
-		if (soundID != -1)
-			mPool.unload(soundID);
+	/**
+	 * Start samples on a grid instead of instantly. The grid starts now, so
+	 * calling this on a downbeat of the music aligns the grid with it.
+	 *
+	 * @param bpm
+	 *            tempo in quarter notes per minute
+	 * @param quantize
+	 *            one of the <code>QUANTIZE_</code> constants
+	 */
+	public void setQuantization(float bpm, int quantize) {
+		mQuantize = quantize;
+		if (quantize != QUANTIZE_OFF) {
+			mGridFrames = AudioEngine.SAMPLE_RATE * 60.0 * 4 / (bpm * quantize);
+			mGridOrigin = mEngine.getNextFrame();
+		}
 	}
 
-	public void playSample() {
-		playSound(mSampleID, PITCH_MID);
+	/**
+	 * Play the sample, at the next grid position if quantization is set.
+	 *
+	 * @param time
+	 *            uptime of the touch event in milliseconds
+	 */
+	public void playSample(long time) {
+		long frame = mEngine.frameOf(time);
+		if (mQuantize != QUANTIZE_OFF) {
+			final double steps = Math.ceil((frame - mGridOrigin) / mGridFrames);
+			frame = mGridOrigin + (long) Math.ceil(steps * mGridFrames);
+		}
+		playSound(mSample, PITCH_MID, frame);
 	}
 
-	public void playForward(float velocity) {
-		playSound(mForwardID, calculatePitch(velocity));
+	/**
+	 * @param time
+	 *            uptime of the touch event in milliseconds
+	 */
+	public void playForward(float velocity, long time) {
+		playSound(mForward, calculatePitch(velocity), mEngine.frameOf(time));
 	}
 
-	public void playBackward(float velocity) {
-		playSound(mBackwardID, calculatePitch(velocity));
+	/**
+	 * @param time
+	 *            uptime of the touch event in milliseconds
+	 */
+	public void playBackward(float velocity, long time) {
+		playSound(mBackward, calculatePitch(velocity), mEngine.frameOf(time));
 	}
 
-	private void playSound(int soundID, float pitch) {
+	private void playSound(Future<PcmData> clip, float pitch, long frame) {
 		if (LL.isDebugEnabled())
-			LL.debug("playSound: " + soundID + " pitch=" + pitch);
-		mPool.play(soundID, 1, 1, 0, 0, pitch);
+			LL.debug("playSound: pitch=" + pitch + " frame=" + frame);
+		if (clip == null || !clip.isDone()) {
+			mWatchdog.playNotReady();
+			LL.warn("playSound: clip not ready");
+			return;
+		}
+		// A done clip without data failed to decode
+		final PcmData sound = SampleBank.getIfReady(clip);
+		final long start = System.nanoTime();
+		final boolean success = sound != null
+				&& mEngine.play(sound, pitch, frame);
+		mWatchdog.playFinished(start, success);
+		if (sound == null)
+			LL.warn("playSound failed, clip not decoded");
+		else if (!success)
+			LL.warn("playSound failed, no audio track or queue full");
+	}
+
+	/**
+	 * Set the fader level. It applies to the playing sound and to all sounds
+	 * played later.
+	 *
+	 * @param level
+	 *            0 to cut the sound, 1 for full volume
+	 * @param time
+	 *            uptime of the touch event in milliseconds
+	 */
+	public void setFader(float level, long time) {
+		if (level == mFader)
+			return;
+		mFader = level;
+		mEngine.setGain(level, time);
 	}
 
 	/**
@@ -84,22 +194,39 @@ public class ScratchSoundPool {
 	 * @see <a href="http://de.wikipedia.org/wiki/Gerade">Gerade</a>
 	 */
 	private static float calculatePitch(float velocity) {
+		final int velocityMin = VELOCITY_MIN.getPixels();
+		final int velocityMid = VELOCITY_MID.getPixels();
+		final int velocityMax = VELOCITY_MAX.getPixels();
 		float pitch;
-		if (velocity <= VELOCITY_MIN)
+		if (velocity <= velocityMin)
 			pitch = PITCH_MIN;
-		else if (velocity <= VELOCITY_MID)
-			pitch = (PITCH_MID - PITCH_MIN) / (VELOCITY_MID - VELOCITY_MIN)
-					* (velocity - VELOCITY_MIN) + PITCH_MIN;
-		else if (velocity <= VELOCITY_MAX)
-			pitch = (PITCH_MAX - PITCH_MID) / (VELOCITY_MAX - VELOCITY_MID)
-					* (velocity - VELOCITY_MID) + PITCH_MID;
+		else if (velocity <= velocityMid)
+			pitch = (PITCH_MID - PITCH_MIN) / (velocityMid - velocityMin)
+					* (velocity - velocityMin) + PITCH_MIN;
+		else if (velocity <= velocityMax)
+			pitch = (PITCH_MAX - PITCH_MID) / (velocityMax - velocityMid)
+					* (velocity - velocityMid) + PITCH_MID;
 		else
 			pitch = PITCH_MAX;
 		return pitch;
 	}
 
-	public void close() {
-		mPool.release();
-		mPool = null;
+	public EffectsChain getEffects() {
+		return mEngine.getEffects();
+	}
+
+	public AudioWatchdog getWatchdog() {
+		return mWatchdog;
+	}
+
+	public void dump(String prefix, PrintWriter writer) {
+		mWatchdog.dump(prefix, writer);
+		mBank.dump(prefix, writer);
+	}
+
+	public synchronized void close() {
+		mBank.close();
+		mEngine.close();
+		mEngine = null;
 	}
 }
@@ -0,0 +1,164 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.sound;
+
+/**
+ * Sounds waiting to start at an exact frame of the render loop. Triggers are
+ * posted through a lock free ring by one thread and moved by the render thread
+ * into a binary heap ordered by frame, so triggers can be posted long before
+ * they are due and in any order. Triggers for the same frame start in the
+ * order they were posted. Both structures are allocated once.
+ */
+final class TriggerQueue {
+	/** Size of the ring, must be a power of two. */
+	private static final int RING_SIZE = 64;
+	private static final int HEAP_SIZE = 64;
+
+	// Ring, mWrite is only written by the posting thread and mRead only by the
+	// render thread
+	private final PcmData[] mRingData = new PcmData[RING_SIZE];
+	private final float[] mRingStep = new float[RING_SIZE];
+	private final long[] mRingFrame = new long[RING_SIZE];
+	private volatile int mWrite;
+	private volatile int mRead;
+
+	// Heap, render thread only
+	private final PcmData[] mHeapData = new PcmData[HEAP_SIZE];
+	private final float[] mHeapStep = new float[HEAP_SIZE];
+	private final long[] mHeapFrame = new long[HEAP_SIZE];
+	private final long[] mHeapOrder = new long[HEAP_SIZE];
+	private int mSize;
+	private long mOrder;
+
+	/**
+	 * Post a trigger.
+	 *
+	 * @param step
+	 *            frames of the sound to advance per output frame
+	 * @param frame
+	 *            render frame to start at
+	 * @return false if the ring is full and the trigger was dropped
+	 */
+	boolean post(PcmData data, float step, long frame) {
+		final int write = mWrite;
+		if (write - mRead == RING_SIZE)
+			return false;
+		final int i = write & (RING_SIZE - 1);
+		mRingData[i] = data;
+		mRingStep[i] = step;
+		mRingFrame[i] = frame;
+		mWrite = write + 1;
+		return true;
+	}
+
+	/**
+	 * Move posted triggers into the heap. Triggers that do not fit stay in the
+	 * ring until the heap has room. Render thread only.
+	 */
+	void drain() {
+		int read = mRead;
+		while (read != mWrite && mSize < HEAP_SIZE) {
+			final int i = read & (RING_SIZE - 1);
+			int child = mSize++;
+			// Sift up
+			while (child > 0) {
+				final int parent = (child - 1) >> 1;
+				if (mHeapFrame[parent] <= mRingFrame[i])
+					break;
+				move(parent, child);
+				child = parent;
+			}
+			mHeapData[child] = mRingData[i];
+			mHeapStep[child] = mRingStep[i];
+			mHeapFrame[child] = mRingFrame[i];
+			mHeapOrder[child] = mOrder++;
+			mRingData[i] = null;
+			mRead = ++read;
+		}
+	}
+
+	/**
+	 * @return true if no trigger is waiting, posted ones included
+	 */
+	boolean isEmpty() {
+		return mSize == 0 && mRead == mWrite;
+	}
+
+	/**
+	 * @return frame of the next trigger, {@link Long#MAX_VALUE} if the heap is
+	 *         empty
+	 */
+	long peekFrame() {
+		return mSize > 0 ? mHeapFrame[0] : Long.MAX_VALUE;
+	}
+
+	PcmData peekData() {
+		return mHeapData[0];
+	}
+
+	float peekStep() {
+		return mHeapStep[0];
+	}
+
+	/**
+	 * Remove the next trigger.
+	 */
+	void pop() {
+		final int last = --mSize;
+		final PcmData data = mHeapData[last];
+		final float step = mHeapStep[last];
+		final long frame = mHeapFrame[last];
+		final long order = mHeapOrder[last];
+		mHeapData[last] = null;
+
+		// Sift down the last element from the root
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= last)
+				break;
+			if (child + 1 < last && before(child + 1, child))
+				child++;
+			if (frame < mHeapFrame[child] || frame == mHeapFrame[child]
+					&& order < mHeapOrder[child])
+				break;
+			move(child, parent);
+			parent = child;
+		}
+		if (last > 0) {
+			mHeapData[parent] = data;
+			mHeapStep[parent] = step;
+			mHeapFrame[parent] = frame;
+			mHeapOrder[parent] = order;
+		}
+	}
+
+	private boolean before(int i, int j) {
+		return mHeapFrame[i] < mHeapFrame[j] || mHeapFrame[i] == mHeapFrame[j]
+				&& mHeapOrder[i] < mHeapOrder[j];
+	}
+
+	private void move(int from, int to) {
+		mHeapData[to] = mHeapData[from];
+		mHeapStep[to] = mHeapStep[from];
+		mHeapFrame[to] = mHeapFrame[from];
+		mHeapOrder[to] = mHeapOrder[from];
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.time;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Scheduler running tasks on the thread of a Handler, in uptime.
+ */
+public final class HandlerScheduler implements Scheduler {
+	private final Handler mHandler;
+
+	/**
+	 * Create a scheduler for the current thread, which must have a Looper.
+	 */
+	public HandlerScheduler() {
+		this(new Handler());
+	}
+
+	public HandlerScheduler(Handler handler) {
+		mHandler = handler;
+	}
+
+	@Override
+	public long now() {
+		return SystemClock.uptimeMillis();
+	}
+
+	@Override
+	public void schedule(Runnable task, long delay) {
+		mHandler.postDelayed(task, delay);
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		mHandler.removeCallbacks(task);
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.time;
+
+/**
+ * Source of time and delayed execution. On the device this is backed by a
+ * Handler and the uptime clock, in simulations by {@link VirtualScheduler}, so
+ * timing dependent behavior can be run faster than real time and reproduced
+ * exactly.
+ */
+public interface Scheduler {
+	/**
+	 * @return current time in milliseconds, on the same time base as
+	 *         android.view.MotionEvent#getEventTime()
+	 */
+	long now();
+
+	/**
+	 * Run a task after a delay.
+	 *
+	 * @param delay
+	 *            in milliseconds
+	 */
+	void schedule(Runnable task, long delay);
+
+	/**
+	 * Remove all pending runs of a task.
+	 */
+	void cancel(Runnable task);
+}
@@ -0,0 +1,122 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.time;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Scheduler with virtual time for simulations on a plain JVM. Time only moves
+ * when {@link #advanceBy(long)} or {@link #advanceTo(long)} is called, tasks
+ * due until then are run in the order of their time and, for equal times, in
+ * the order they were scheduled. The same sequence of calls therefore always
+ * produces the same results. Entries of tasks that have run are reused, so
+ * scheduling does not allocate in benchmarks once the queue has grown.
+ */
+public final class VirtualScheduler implements Scheduler {
+	private static final class Entry implements Comparable<Entry> {
+		long time;
+		long sequence;
+		Runnable task;
+		/** Next free entry. */
+		Entry next;
+
+		@Override
+		public int compareTo(Entry other) {
+			if (time != other.time)
+				return time < other.time ? -1 : 1;
+			if (sequence != other.sequence)
+				return sequence < other.sequence ? -1 : 1;
+			return 0;
+		}
+	}
+
+	private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+	private long mNow;
+	private long mSequence;
+	private Entry mFree;
+
+	/**
+	 * @param start
+	 *            initial time in milliseconds
+	 */
+	public VirtualScheduler(long start) {
+		mNow = start;
+	}
+
+	@Override
+	public long now() {
+		return mNow;
+	}
+
+	@Override
+	public void schedule(Runnable task, long delay) {
+		Entry entry = mFree;
+		if (entry != null)
+			mFree = entry.next;
+		else
+			entry = new Entry();
+		entry.time = mNow + Math.max(delay, 0);
+		entry.sequence = mSequence++;
+		entry.task = task;
+		mQueue.add(entry);
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		Iterator<Entry> it = mQueue.iterator();
+		while (it.hasNext())
+			if (it.next().task == task)
+				it.remove();
+	}
+
+	/**
+	 * Run all tasks due until a point in time and move the clock there.
+	 *
+	 * @param time
+	 *            in milliseconds, not before {@link #now()}
+	 */
+	public void advanceTo(long time) {
+		if (time < mNow)
+			throw new IllegalArgumentException("Time runs backwards: " + time
+					+ " < " + mNow);
+		while (!mQueue.isEmpty() && mQueue.peek().time <= time) {
+			Entry entry = mQueue.poll();
+			mNow = entry.time;
+			final Runnable task = entry.task;
+			entry.task = null;
+			entry.next = mFree;
+			mFree = entry;
+			task.run();
+		}
+		mNow = time;
+	}
+
+	public void advanceBy(long millis) {
+		advanceTo(mNow + millis);
+	}
+
+	/**
+	 * @return number of pending tasks
+	 */
+	public int getPending() {
+		return mQueue.size();
+	}
+}
@@ -24,7 +24,7 @@ import android.content.Context;
 import com.brillenheini.deepscratch.log.LL;
 
 public final class Converter {
-	private static float sDensity;
+	private static volatile float sDensity;
 
 	private Converter() {
 	}
@@ -41,8 +41,12 @@ public final class Converter {
 	 * @see <a
 	 *      href="http://developer.android.com/guide/practices/screens_support.html#dips-pels"
 	 *      >Converting from dips to pixels</a>
+	 * @throws IllegalStateException
+	 *             if {@link #initialize(Context)} has not been called yet
 	 */
 	public static int dipsToPix(float dips) {
+		if (sDensity == 0)
+			throw new IllegalStateException("Converter not initialized");
 		return (int) (dips * sDensity + 0.5f);
 	}
 }
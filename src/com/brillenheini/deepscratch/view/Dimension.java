@@ -0,0 +1,62 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+/**
+ * A length in dips that is converted to pixels on first use. Unlike a static
+ * field initialized with {@link Converter#dipsToPix(float)}, this does not
+ * depend on the order in which classes are loaded, only on
+ * {@link Converter#initialize(android.content.Context)} being called before
+ * the first use.
+ */
+public final class Dimension {
+	private static final int NOT_CONVERTED = Integer.MIN_VALUE;
+
+	private final float mDips;
+	private volatile int mPixels = NOT_CONVERTED;
+
+	public Dimension(float dips) {
+		mDips = dips;
+	}
+
+	public float getDips() {
+		return mDips;
+	}
+
+	/**
+	 * @return the dimension in pixels
+	 * @throws IllegalStateException
+	 *             if the converter has not been initialized yet
+	 */
+	public int getPixels() {
+		// Racing threads compute the same value, no need to synchronize
+		int pixels = mPixels;
+		if (pixels == NOT_CONVERTED) {
+			pixels = Converter.dipsToPix(mDips);
+			mPixels = pixels;
+		}
+		return pixels;
+	}
+
+	@Override
+	public String toString() {
+		return mDips + "dip";
+	}
+}
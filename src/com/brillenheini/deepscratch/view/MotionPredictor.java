@@ -0,0 +1,221 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.PrintWriter;
+
+/**
+ * Extrapolate the position of a finger on one axis from its recent history.
+ * The velocity is fitted with least squares over the last few samples. If the
+ * newest movement does not agree with the fitted velocity, e.g. because the
+ * finger is about to reverse, the confidence drops and no prediction is made.
+ * <p>
+ * Every new sample is compared with the position that was predicted for its
+ * time and with the last position, which is what the record shows without a
+ * prediction. Both errors are kept for applied predictions only, so the
+ * metric shows whether the prediction helps. No memory is allocated after
+ * construction.
+ */
+final class MotionPredictor {
+	/** Number of samples kept, must be a power of two. */
+	private static final int HISTORY_SIZE = 8;
+	/** Samples older than this relative to the newest one are ignored (ms). */
+	private static final long HISTORY_TIME = 50;
+	/** Never predict further ahead than this (ms). */
+	private static final long MAX_HORIZON = 40;
+	/** Predictions below this confidence are suppressed. */
+	private static final float MIN_CONFIDENCE = 0.6f;
+
+	private final long[] mTime = new long[HISTORY_SIZE];
+	private final float[] mPosition = new float[HISTORY_SIZE];
+	private int mCount;
+
+	// Last prediction as base and velocity, to measure the error
+	private boolean mPredicted;
+	private long mPredictionTime;
+	private float mPredictionPosition;
+	private float mPredictionVelocity;
+
+	// Metrics
+	private int mPredictions;
+	private int mSuppressed;
+	private int mErrors;
+	private double mErrorSum;
+	private float mErrorMax;
+	private double mBaselineSum;
+	private float mBaselineMax;
+
+	/**
+	 * Forget the history, call when a new gesture starts.
+	 */
+	public void reset() {
+		mCount = 0;
+		mPredicted = false;
+	}
+
+	/**
+	 * Add a sample.
+	 *
+	 * @param time
+	 *            in milliseconds
+	 * @param position
+	 *            in pixels
+	 */
+	public void add(long time, float position) {
+		if (mPredicted) {
+			float expected = mPredictionPosition + mPredictionVelocity
+					* (time - mPredictionTime);
+			float error = Math.abs(position - expected);
+			float baseline = Math.abs(position - mPredictionPosition);
+			mErrors++;
+			mErrorSum += error;
+			if (error > mErrorMax)
+				mErrorMax = error;
+			mBaselineSum += baseline;
+			if (baseline > mBaselineMax)
+				mBaselineMax = baseline;
+			mPredicted = false;
+		}
+
+		// Drop samples with the same time, they cannot be fitted
+		if (mCount > 0 && time <= timeAt(0))
+			mCount--;
+		final int i = mCount & (HISTORY_SIZE - 1);
+		mTime[i] = time;
+		mPosition[i] = position;
+		mCount++;
+	}
+
+	/**
+	 * Predict the position at a point in time after the newest sample.
+	 *
+	 * @param time
+	 *            in milliseconds
+	 * @return the predicted position or the newest position if the prediction
+	 *         is not reliable
+	 */
+	public float predict(long time) {
+		if (mCount == 0)
+			return 0;
+
+		final long lastTime = timeAt(0);
+		final float lastPosition = positionAt(0);
+		final long horizon = Math.min(time - lastTime, MAX_HORIZON);
+
+		float velocity = 0;
+		if (horizon > 0 && mCount >= 3) {
+			float fitted = fitVelocity();
+			float newest = (lastPosition - positionAt(1))
+					/ (lastTime - timeAt(1));
+			if (confidence(fitted, newest) >= MIN_CONFIDENCE)
+				velocity = fitted;
+		}
+
+		// Only applied predictions are measured, a suppressed one would just
+		// add the baseline to both errors
+		if (velocity != 0)
+			mPredictions++;
+		else
+			mSuppressed++;
+
+		mPredicted = velocity != 0;
+		mPredictionTime = lastTime;
+		mPredictionPosition = lastPosition;
+		mPredictionVelocity = velocity;
+
+		return lastPosition + velocity * Math.max(horizon, 0);
+	}
+
+	/**
+	 * Least squares fit of the velocity over the recent samples.
+	 *
+	 * @return velocity in pixels per millisecond
+	 */
+	private float fitVelocity() {
+		final long lastTime = timeAt(0);
+		final int n = Math.min(mCount, HISTORY_SIZE);
+		int used = 0;
+		double sumT = 0, sumP = 0, sumTT = 0, sumTP = 0;
+		for (int k = 0; k < n; k++) {
+			long t = timeAt(k) - lastTime;
+			if (-t > HISTORY_TIME)
+				break;
+			float p = positionAt(k);
+			sumT += t;
+			sumP += p;
+			sumTT += t * t;
+			sumTP += t * p;
+			used++;
+		}
+		double denominator = used * sumTT - sumT * sumT;
+		if (used < 2 || denominator == 0)
+			return 0;
+		return (float) ((used * sumTP - sumT * sumP) / denominator);
+	}
+
+	/**
+	 * The confidence is the ratio of the smaller to the larger speed if both
+	 * velocities point in the same direction and 0 otherwise.
+	 */
+	private static float confidence(float v1, float v2) {
+		if (v1 == 0 || v2 == 0 || (v1 > 0) != (v2 > 0))
+			return 0;
+		float a1 = Math.abs(v1);
+		float a2 = Math.abs(v2);
+		return a1 < a2 ? a1 / a2 : a2 / a1;
+	}
+
+	/**
+	 * @param age
+	 *            0 for the newest sample
+	 */
+	private long timeAt(int age) {
+		return mTime[(mCount - 1 - age) & (HISTORY_SIZE - 1)];
+	}
+
+	private float positionAt(int age) {
+		return mPosition[(mCount - 1 - age) & (HISTORY_SIZE - 1)];
+	}
+
+	/**
+	 * @return mean distance of the next sample from the applied predictions
+	 */
+	float getMeanError() {
+		return mErrors > 0 ? (float) (mErrorSum / mErrors) : 0;
+	}
+
+	/**
+	 * @return mean distance of the next sample from the last one, for the
+	 *         same samples as {@link #getMeanError()}
+	 */
+	float getMeanBaselineError() {
+		return mErrors > 0 ? (float) (mBaselineSum / mErrors) : 0;
+	}
+
+	public void dump(String prefix, PrintWriter writer) {
+		writer.print(prefix);
+		writer.println("MotionPredictor: predictions=" + mPredictions
+				+ " suppressed=" + mSuppressed + " meanError="
+				+ getMeanError() + "px maxError=" + mErrorMax
+				+ "px without prediction: meanError="
+				+ getMeanBaselineError() + "px maxError=" + mBaselineMax
+				+ "px");
+	}
+}
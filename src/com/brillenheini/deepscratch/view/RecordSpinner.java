@@ -22,37 +22,32 @@ package com.brillenheini.deepscratch.view;
 import static java.lang.Math.atan;
 import static java.lang.Math.toDegrees;
 import android.graphics.Matrix;
-import android.os.Handler;
-import android.os.Handler.Callback;
-import android.os.Message;
 import android.widget.ImageView;
 
 import com.brillenheini.deepscratch.log.LL;
+import com.brillenheini.deepscratch.time.Scheduler;
 
 /**
- * Spin the image of the record with an image matrix.
+ * Spin the image of the record with an image matrix. The timing of the
+ * rotation is left to a {@link Turntable}.
  */
-class RecordSpinner implements Callback {
+class RecordSpinner implements Turntable.Listener {
 	public static final int OFFSET_DEFAULT = -1;
 
-	private static final int ROTATION_DELAY = 60;
-	private static final int ROTATION_ANGLE = 10;
-
-	private static final int WHAT_ROTATE = 0;
-
 	private ImageView mImage;
 	private Matrix mMatrix;
-	private Handler mRotator = new Handler(this);
+	private Turntable mTurntable;
 
 	private int mPivotX;
 	private int mPivotY;
 
-	private float mLastAngle;
-
 	private boolean mStartDelayed = false;
+	/** Angle of the predicted offset currently applied to the record. */
+	private float mPredictedAngle;
 
-	public RecordSpinner(ImageView image) {
+	public RecordSpinner(ImageView image, Scheduler scheduler) {
 		mImage = image;
+		mTurntable = new Turntable(scheduler, this);
 	}
 
 	public void setup(int offsetX, int offsetY) {
@@ -84,42 +79,58 @@ class RecordSpinner implements Callback {
 
 		// startRotation has alredy been called, start rotation now
 		if (mStartDelayed)
-			rotateOnce();
+			mTurntable.start();
 	}
 
 	/**
 	 * Spin the record by the specified amount of degrees.
 	 */
 	public void spin(float degrees) {
+		mTurntable.turn(degrees);
+	}
+
+	@Override
+	public void onTurn(float degrees) {
 		mMatrix.postRotate(degrees, mPivotX, mPivotY);
 		mImage.setImageMatrix(mMatrix);
-		mLastAngle = degrees;
 	}
 
 	/**
 	 * Spin the record according to the scratched distance. The calculation of
-	 * the angle uses a right angle triangle for simplicity.
+	 * the angle uses a right angle triangle for simplicity. The predicted
+	 * offset is applied on top without counting as a movement, so it does not
+	 * change how the record is pulled back.
 	 * 
 	 * @param dy
 	 *            scratch distance on y-axis
+	 * @param offset
+	 *            predicted distance on the y-axis ahead of the finger,
+	 *            replaces the previous offset
 	 * @param x
 	 *            starting point of scratch on x-axis
 	 */
-	public void spin(float dy, float x) {
+	public void spin(float dy, float offset, float x) {
 		float b = x - mPivotX;
-		if (b != 0) {
-			// atan returns radians
-			float angle = (float) toDegrees(atan(dy / b));
-			spin(angle);
+		if (b != 0 && dy != 0)
+			spin(angle(dy, b));
+		final float predicted = b != 0 && offset != 0 ? angle(offset, b) : 0;
+		if (predicted != mPredictedAngle) {
+			mTurntable.adjust(predicted - mPredictedAngle);
+			mPredictedAngle = predicted;
 		}
 	}
 
+	private static float angle(float a, float b) {
+		// atan returns radians
+		return (float) toDegrees(atan(a / b));
+	}
+
 	/**
 	 * Start rotating the record.
 	 */
 	public void startRotation() {
 		if (mMatrix != null)
-			rotateOnce();
+			mTurntable.start();
 		else
 			mStartDelayed = true;
 	}
@@ -128,25 +139,6 @@ class RecordSpinner implements Callback {
 	 * Stop rotating the record.
 	 */
 	public void stopRotation() {
-		mRotator.removeMessages(WHAT_ROTATE);
-	}
-
-	private void rotateOnce() {
-		int degrees = ROTATION_ANGLE;
-
-		// Pulling back
-		if (mLastAngle < -1)
-			degrees = (int) (mLastAngle * 0.4f - 0.5f);
-
-		mRotator.removeMessages(WHAT_ROTATE);
-		mRotator.sendMessageDelayed(
-				mRotator.obtainMessage(WHAT_ROTATE, degrees, 0), ROTATION_DELAY);
-	}
-
-	@Override
-	public boolean handleMessage(Message msg) {
-		spin(msg.arg1);
-		rotateOnce();
-		return true;
+		mTurntable.stop();
 	}
 }
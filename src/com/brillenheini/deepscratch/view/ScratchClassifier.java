@@ -0,0 +1,246 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.PrintWriter;
+
+/**
+ * Recognize scratch patterns while the finger moves. The movement of the
+ * scratch finger is split into strokes at direction reversals. Each stroke is
+ * classified when it ends, consecutive strokes of the same kind form a
+ * pattern:
+ * <ul>
+ * <li>baby: long strokes back and forth with the fader open</li>
+ * <li>scribble: very short and fast strokes</li>
+ * <li>tear: a stroke that pauses and continues in the same direction</li>
+ * <li>crab: quick fader taps during a stroke</li>
+ * </ul>
+ * Every touch event is processed in constant time and no memory is allocated,
+ * patterns are reported as int constants.
+ */
+final class ScratchClassifier {
+	interface Listener {
+		/**
+		 * A pattern was recognized or continued by another stroke.
+		 *
+		 * @param pattern
+		 *            one of the <code>PATTERN_</code> constants
+		 * @param strokes
+		 *            number of consecutive strokes of the pattern
+		 */
+		void onPattern(int pattern, int strokes);
+	}
+
+	static final int PATTERN_NONE = 0;
+	static final int PATTERN_BABY = 1;
+	static final int PATTERN_SCRIBBLE = 2;
+	static final int PATTERN_TEAR = 3;
+	static final int PATTERN_CRAB = 4;
+
+	private static final String[] PATTERN_NAMES = { "none", "baby",
+			"scribble", "tear", "crab" };
+	/** Consecutive strokes needed to recognize each pattern. */
+	private static final int[] MIN_STROKES = { 0, 4, 6, 1, 1 };
+
+	/** A stop longer than this splits a stroke into parts of a tear (ms). */
+	private static final long TEAR_PAUSE = 40;
+	/**
+	 * The stop must also be this many times longer than the step before, so a
+	 * slow drag is not mistaken for a tear.
+	 */
+	private static final int TEAR_RATIO = 3;
+	/** Longest stroke of a scribble (ms). */
+	private static final long SCRIBBLE_TIME = 80;
+	/** Longest stroke of a baby scratch (ms). */
+	private static final long BABY_TIME = 600;
+	/** Fader taps in a stroke that make a crab. */
+	private static final int CRAB_TAPS = 3;
+	/** Longest mean time between the taps of a crab (ms). */
+	private static final long CRAB_INTERVAL = 120;
+
+	private final Listener mListener;
+	private final int mStrokeDistance;
+	private final int mHysteresis;
+	private final int mJitter;
+
+	// Current stroke, direction is 1 down, -1 up and 0 before the first
+	// movement
+	private boolean mActive;
+	private int mDirection;
+	private float mStartY;
+	private long mStartTime;
+	private float mExtremeY;
+	private long mExtremeTime;
+	private float mAnchorY;
+	private long mAnchorTime;
+	private long mAnchorGap;
+	private int mParts;
+	private int mTaps;
+	private long mFirstTap;
+	private long mLastTap;
+
+	// Current run of strokes of the same pattern
+	private int mRunPattern = PATTERN_NONE;
+	private int mRunStrokes;
+
+	// Metrics
+	private int mStrokes;
+	private final int[] mRecognized = new int[PATTERN_NAMES.length];
+
+	/**
+	 * @param strokeDistance
+	 *            shortest stroke in pixels of baby scratches and tears,
+	 *            scribbles are shorter
+	 */
+	ScratchClassifier(Listener listener, int strokeDistance) {
+		mListener = listener;
+		mStrokeDistance = strokeDistance;
+		mHysteresis = Math.max(1, strokeDistance / 8);
+		mJitter = Math.max(1, mHysteresis / 2);
+	}
+
+	static String getPatternName(int pattern) {
+		return PATTERN_NAMES[pattern];
+	}
+
+	/**
+	 * The scratch finger touched the record.
+	 *
+	 * @param time
+	 *            in milliseconds
+	 */
+	void start(float y, long time) {
+		mActive = true;
+		mDirection = 0;
+		mStartY = mExtremeY = mAnchorY = y;
+		mStartTime = mExtremeTime = mAnchorTime = time;
+		mAnchorGap = -1;
+		mParts = 1;
+		mTaps = 0;
+		mRunPattern = PATTERN_NONE;
+		mRunStrokes = 0;
+	}
+
+	/**
+	 * The scratch finger moved.
+	 */
+	void move(float y, long time) {
+		if (!mActive)
+			return;
+
+		if (mDirection == 0) {
+			if (Math.abs(y - mStartY) > mHysteresis) {
+				mDirection = y > mStartY ? 1 : -1;
+				mExtremeY = mAnchorY = y;
+				mExtremeTime = mAnchorTime = time;
+				mAnchorGap = -1;
+			}
+			return;
+		}
+
+		if ((y - mExtremeY) * mDirection > 0) {
+			// Further in the same direction, a long stop before splits a tear
+			mExtremeY = y;
+			mExtremeTime = time;
+			if ((y - mAnchorY) * mDirection > mJitter) {
+				final long gap = time - mAnchorTime;
+				if (mAnchorGap >= 0 && gap > TEAR_PAUSE
+						&& gap > TEAR_RATIO * mAnchorGap)
+					mParts++;
+				mAnchorY = y;
+				mAnchorTime = time;
+				mAnchorGap = gap;
+			}
+		} else if ((mExtremeY - y) * mDirection > mHysteresis) {
+			// Reversed, the new stroke starts at the turning point
+			endStroke();
+			mDirection = -mDirection;
+			mStartY = mExtremeY;
+			mStartTime = mExtremeTime;
+			mExtremeY = mAnchorY = y;
+			mExtremeTime = mAnchorTime = time;
+			mAnchorGap = -1;
+			mParts = 1;
+			mTaps = 0;
+		}
+	}
+
+	/**
+	 * The fader finger cut the sound.
+	 */
+	void faderCut(long time) {
+		if (!mActive)
+			return;
+		if (mTaps == 0)
+			mFirstTap = time;
+		mLastTap = time;
+		mTaps++;
+	}
+
+	/**
+	 * The scratch finger left the record.
+	 */
+	void end() {
+		if (mActive && mDirection != 0)
+			endStroke();
+		mActive = false;
+	}
+
+	private void endStroke() {
+		final float length = Math.abs(mExtremeY - mStartY);
+		final long duration = mExtremeTime - mStartTime;
+		int pattern;
+		if (mTaps >= CRAB_TAPS
+				&& mLastTap - mFirstTap <= CRAB_INTERVAL * (mTaps - 1))
+			pattern = PATTERN_CRAB;
+		else if (mParts > 1 && length >= mStrokeDistance)
+			pattern = PATTERN_TEAR;
+		else if (length < mStrokeDistance && duration <= SCRIBBLE_TIME)
+			pattern = PATTERN_SCRIBBLE;
+		else if (length >= mStrokeDistance && duration <= BABY_TIME
+				&& mTaps == 0)
+			pattern = PATTERN_BABY;
+		else
+			pattern = PATTERN_NONE;
+
+		mStrokes++;
+		if (pattern == mRunPattern) {
+			mRunStrokes++;
+		} else {
+			mRunPattern = pattern;
+			mRunStrokes = 1;
+		}
+		if (pattern != PATTERN_NONE && mRunStrokes >= MIN_STROKES[pattern]) {
+			if (mRunStrokes == MIN_STROKES[pattern])
+				mRecognized[pattern]++;
+			mListener.onPattern(pattern, mRunStrokes);
+		}
+	}
+
+	public void dump(String prefix, PrintWriter writer) {
+		writer.print(prefix);
+		writer.println("ScratchClassifier:");
+		writer.print(prefix);
+		writer.print("  strokes=" + mStrokes);
+		for (int i = PATTERN_BABY; i < PATTERN_NAMES.length; i++)
+			writer.print(" " + PATTERN_NAMES[i] + "=" + mRecognized[i]);
+		writer.println();
+	}
+}
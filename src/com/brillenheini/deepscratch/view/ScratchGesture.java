@@ -0,0 +1,352 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import java.io.PrintWriter;
+
+import com.brillenheini.deepscratch.time.Scheduler;
+
+/**
+ * Turn touch input into scratches. The first finger scratches, a second finger
+ * works as fader: it cuts the sound when it touches and opens the fader again
+ * when it slides to the side. Further fingers are tracked but ignored. Both
+ * fingers are also fed to a {@link ScratchClassifier} to recognize patterns.
+ * <p>
+ * Touch state is held per pointer ID in arrays, nothing is allocated per
+ * event. Positions and times are passed in as plain values and time is read
+ * from a {@link Scheduler}, so gestures can be replayed without Android.
+ */
+final class ScratchGesture {
+	interface Listener extends ScratchClassifier.Listener {
+		/** The scratch finger touched the record. */
+		void onScratchStart();
+
+		/** The scratch finger left the record. */
+		void onScratchEnd();
+
+		/**
+		 * The record moved.
+		 *
+		 * @param dy
+		 *            distance the finger moved on the y-axis
+		 * @param offset
+		 *            predicted distance on the y-axis ahead of the finger,
+		 *            replaces the previous offset
+		 * @param x
+		 *            position on the x-axis
+		 */
+		void onSpin(float dy, float offset, float x);
+
+		/**
+		 * @param velocity
+		 *            in pixels per second
+		 * @param time
+		 *            time of the event in milliseconds
+		 */
+		void onForward(float velocity, long time);
+
+		/**
+		 * @param velocity
+		 *            in pixels per second
+		 * @param time
+		 *            time of the event in milliseconds
+		 */
+		void onBackward(float velocity, long time);
+
+		/**
+		 * @param time
+		 *            time of the event in milliseconds
+		 */
+		void onSample(long time);
+
+		/**
+		 * @param level
+		 *            0 to cut the sound, 1 for full volume
+		 * @param time
+		 *            time of the event in milliseconds
+		 */
+		void onFader(float level, long time);
+	}
+
+	/** Pointer IDs from 0 to MAX_POINTERS - 1 are tracked, like Android. */
+	static final int MAX_POINTERS = 32;
+	private static final int NO_POINTER = -1;
+
+	/** Time from drawing a frame until it is visible (ms). */
+	private static final long FRAME_TIME = 16;
+	/**
+	 * The prediction is taken back if no move follows for this long (ms).
+	 * Moves are batched once per frame, half a frame more allows for jitter.
+	 */
+	private static final long TAKE_BACK_DELAY = FRAME_TIME + FRAME_TIME / 2;
+
+	private final Scheduler mScheduler;
+	private final Listener mListener;
+	private final int mMinScratchDistance;
+	private final int mMinSampleDistance;
+	private final int mFaderDistance;
+
+	// Touch state per pointer ID
+	private final boolean[] mDown = new boolean[MAX_POINTERS];
+	private final float[] mLastX = new float[MAX_POINTERS];
+	private final float[] mLastY = new float[MAX_POINTERS];
+	private final float[] mLastDX = new float[MAX_POINTERS];
+	private final float[] mLastDY = new float[MAX_POINTERS];
+	private final float[] mStartX = new float[MAX_POINTERS];
+	private final float[] mStartY = new float[MAX_POINTERS];
+	private final long[] mLastTime = new long[MAX_POINTERS];
+	private final long[] mStartTime = new long[MAX_POINTERS];
+	private final boolean[] mPlayed = new boolean[MAX_POINTERS];
+
+	// Pointer IDs of the fingers with a role
+	private int mScratchPointer = NO_POINTER;
+	private int mFaderPointer = NO_POINTER;
+
+	private final MotionPredictor mPredictor = new MotionPredictor();
+	private float mPredictedOffset;
+	/** Scheduler time the last scratch move was handled. */
+	private long mLastMoveTime;
+	private boolean mTakeBackPending;
+	private final Runnable mTakeBack = new Runnable() {
+		@Override
+		public void run() {
+			mTakeBackPending = false;
+			takeBackWhenStopped();
+		}
+	};
+	private final ScratchClassifier mClassifier;
+
+	/**
+	 * @param minScratchDistance
+	 *            vertical distance in pixels that plays a scratch
+	 * @param minSampleDistance
+	 *            horizontal distance in pixels that plays the sample
+	 * @param faderDistance
+	 *            horizontal distance in pixels that opens the fader
+	 */
+	ScratchGesture(Scheduler scheduler, Listener listener,
+			int minScratchDistance, int minSampleDistance, int faderDistance) {
+		mScheduler = scheduler;
+		mListener = listener;
+		mMinScratchDistance = minScratchDistance;
+		mMinSampleDistance = minSampleDistance;
+		mFaderDistance = faderDistance;
+		mClassifier = new ScratchClassifier(listener, minScratchDistance);
+	}
+
+	/**
+	 * A finger touched the record.
+	 *
+	 * @param time
+	 *            event time in milliseconds
+	 */
+	public void down(int id, float x, float y, long time) {
+		if (id < 0 || id >= MAX_POINTERS)
+			return;
+
+		mDown[id] = true;
+		mLastX[id] = x;
+		mLastY[id] = y;
+		mLastDX[id] = 0;
+		mLastDY[id] = 0;
+		mStartX[id] = x;
+		mStartY[id] = y;
+		mLastTime[id] = time;
+		mStartTime[id] = time;
+		mPlayed[id] = false;
+
+		if (mScratchPointer == NO_POINTER) {
+			mScratchPointer = id;
+			mPredictor.reset();
+			mPredictor.add(time, y);
+			mPredictedOffset = 0;
+			mClassifier.start(y, time);
+			mListener.onScratchStart();
+		} else if (mFaderPointer == NO_POINTER) {
+			mFaderPointer = id;
+			mClassifier.faderCut(time);
+			mListener.onFader(0, time);
+		}
+	}
+
+	/**
+	 * A position the finger passed since the last move, used for prediction
+	 * only. Call before {@link #move(int, float, float, long)}.
+	 */
+	public void history(int id, float y, long time) {
+		if (id == mScratchPointer)
+			mPredictor.add(time, y);
+	}
+
+	/**
+	 * A finger moved.
+	 */
+	public void move(int id, float x, float y, long time) {
+		if (id == mScratchPointer)
+			scratchMove(id, x, y, time);
+		else if (id == mFaderPointer)
+			faderMove(id, x, y, time);
+	}
+
+	/**
+	 * A finger left the record.
+	 *
+	 * @param time
+	 *            event time in milliseconds
+	 */
+	public void up(int id, long time) {
+		if (id < 0 || id >= MAX_POINTERS)
+			return;
+
+		mDown[id] = false;
+		if (id == mScratchPointer) {
+			mScratchPointer = NO_POINTER;
+			// Take back the prediction, the record stops where the finger is
+			takeBack(id);
+			if (mTakeBackPending) {
+				mScheduler.cancel(mTakeBack);
+				mTakeBackPending = false;
+			}
+			mClassifier.end();
+			mListener.onScratchEnd();
+		} else if (id == mFaderPointer) {
+			mFaderPointer = NO_POINTER;
+			mListener.onFader(1, time);
+		}
+	}
+
+	/**
+	 * All fingers left the record or the gesture was canceled.
+	 */
+	public void upAll(long time) {
+		for (int id = 0; id < MAX_POINTERS; id++)
+			if (mDown[id])
+				up(id, time);
+	}
+
+	private void scratchMove(int id, float x, float y, long time) {
+		final float dx = x - mLastX[id];
+		final float dy = y - mLastY[id];
+
+		if (dy > 0 && mLastDY[id] < 0 || dy < 0 && mLastDY[id] > 0) {
+			mStartY[id] = mLastY[id];
+			mStartTime[id] = mLastTime[id];
+			mPlayed[id] = false;
+		}
+		if (dx > 0 && mLastDX[id] < 0 || dx < 0 && mLastDX[id] > 0) {
+			mStartX[id] = mLastX[id];
+			mPlayed[id] = false;
+		}
+
+		if (!mPlayed[id]) {
+			final float scratchDistance = Math.abs(y - mStartY[id]);
+			final float lastScratchDistance = Math.abs(mLastY[id] - mStartY[id]);
+			final float sampleDistance = Math.abs(x - mStartX[id]);
+			final float lastSampleDistance = Math.abs(mLastX[id] - mStartX[id]);
+
+			if (scratchDistance > mMinScratchDistance
+					&& lastScratchDistance <= mMinScratchDistance) {
+				if (dy < 0)
+					mListener.onForward(velocity(id, time, scratchDistance),
+							time);
+				else if (dy > 0)
+					mListener.onBackward(velocity(id, time, scratchDistance),
+							time);
+				mPlayed[id] = true;
+			} else if (sampleDistance > mMinSampleDistance
+					&& lastSampleDistance <= mMinSampleDistance) {
+				mListener.onSample(time);
+				mPlayed[id] = true;
+			}
+		}
+
+		// Spin the record to where the finger will be when the next frame
+		// is visible, the offset replaces the previous prediction
+		mPredictor.add(time, y);
+		final float offset = mPredictor.predict(mScheduler.now() + FRAME_TIME)
+				- y;
+		mListener.onSpin(dy, offset, mLastX[id]);
+		mPredictedOffset = offset;
+		mLastMoveTime = mScheduler.now();
+		if (offset != 0 && !mTakeBackPending) {
+			mScheduler.schedule(mTakeBack, TAKE_BACK_DELAY);
+			mTakeBackPending = true;
+		}
+		mClassifier.move(y, time);
+
+		mLastX[id] = x;
+		mLastY[id] = y;
+		if (dx != 0)
+			mLastDX[id] = dx;
+		if (dy != 0)
+			mLastDY[id] = dy;
+		mLastTime[id] = time;
+	}
+
+	/**
+	 * Take back the prediction if the scratch finger stopped without a move,
+	 * otherwise check again when the delay after the last move is over. A
+	 * single pending run is kept instead of rescheduling on every move.
+	 */
+	private void takeBackWhenStopped() {
+		if (mScratchPointer == NO_POINTER || mPredictedOffset == 0)
+			return;
+		final long wait = mLastMoveTime + TAKE_BACK_DELAY - mScheduler.now();
+		if (wait > 0) {
+			mScheduler.schedule(mTakeBack, wait);
+			mTakeBackPending = true;
+		} else {
+			takeBack(mScratchPointer);
+		}
+	}
+
+	private void takeBack(int id) {
+		if (mPredictedOffset != 0) {
+			mListener.onSpin(0, 0, mLastX[id]);
+			mPredictedOffset = 0;
+		}
+	}
+
+	/**
+	 * The fader opens with the horizontal distance from where the finger
+	 * touched down.
+	 */
+	private void faderMove(int id, float x, float y, long time) {
+		final float distance = Math.abs(x - mStartX[id]);
+		mListener.onFader(Math.min(distance / mFaderDistance, 1), time);
+		mLastX[id] = x;
+		mLastY[id] = y;
+		mLastTime[id] = time;
+	}
+
+	/**
+	 * Calculate scratch velocity in pixels per second shortly before a sample
+	 * is played.
+	 */
+	private float velocity(int id, long time, float scratchDistance) {
+		float dt = (float) (time - mStartTime[id]) / 1000;
+		return scratchDistance / dt;
+	}
+
+	public void dump(String prefix, PrintWriter writer) {
+		mPredictor.dump(prefix, writer);
+		mClassifier.dump(prefix, writer);
+	}
+}
@@ -19,35 +19,35 @@
  */
 package com.brillenheini.deepscratch.view;
 
+import java.io.PrintWriter;
+
 import android.content.Context;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.widget.ImageView;
 
+import com.brillenheini.deepscratch.log.LL;
 import com.brillenheini.deepscratch.sound.ScratchSoundPool;
+import com.brillenheini.deepscratch.time.HandlerScheduler;
+import com.brillenheini.deepscratch.time.Scheduler;
 
+/**
+ * The record. Touch events are passed to a {@link ScratchGesture}, which
+ * decides about scratches, the fader and how the record spins.
+ */
 public class ScratchView extends ImageView {
 	private ScratchSoundPool mSounds;
 	private RecordSpinner mSpinner;
+	private ScratchGesture mGesture;
 
 	private static final String LAYOUT_OFFSET_X = "offsetX";
 	private static final String LAYOUT_OFFSET_Y = "offsetY";
 	private int mOffsetX;
 	private int mOffsetY;
 
-	private static final int MIN_SCRATCH_DISTANCE = Converter.dipsToPix(50);
-	private static final int MIN_SAMPLE_DISTANCE = Converter.dipsToPix(80);
-	private float mLastX;
-	private float mLastY;
-	private float mLastDX;
-	private float mLastDY;
-	private float mStartX;
-	private float mStartY;
-
-	private long mLastTime;
-	private long mStartTime;
-
-	private boolean mPlayed;
+	private static final Dimension MIN_SCRATCH_DISTANCE = new Dimension(50);
+	private static final Dimension MIN_SAMPLE_DISTANCE = new Dimension(80);
+	private static final Dimension FADER_DISTANCE = new Dimension(60);
 
 	public ScratchView(Context context) {
 		this(context, null, 0);
@@ -61,7 +61,12 @@ public class ScratchView extends ImageView {
 		super(context, attrs, defStyle);
 		mOffsetX = getLayoutAttribute(attrs, LAYOUT_OFFSET_X);
 		mOffsetY = getLayoutAttribute(attrs, LAYOUT_OFFSET_Y);
-		mSpinner = new RecordSpinner(this);
+
+		Scheduler scheduler = new HandlerScheduler();
+		mSpinner = new RecordSpinner(this, scheduler);
+		mGesture = new ScratchGesture(scheduler, new GestureListener(),
+				MIN_SCRATCH_DISTANCE.getPixels(),
+				MIN_SAMPLE_DISTANCE.getPixels(), FADER_DISTANCE.getPixels());
 	}
 
 	private int getLayoutAttribute(AttributeSet attrs, String attribute) {
@@ -81,92 +86,109 @@ public class ScratchView extends ImageView {
 
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
-		switch (event.getAction()) {
-
-		case MotionEvent.ACTION_DOWN: {
-			mLastX = event.getX();
-			mLastY = event.getY();
-			mLastDX = 0;
-			mLastDY = 0;
-			mStartX = mLastX;
-			mStartY = mLastY;
-			mLastTime = event.getEventTime();
-			mStartTime = mLastTime;
-			mPlayed = false;
-			mSpinner.stopRotation();
+		final int action = event.getAction();
+		switch (action & MotionEvent.ACTION_MASK) {
+
+		case MotionEvent.ACTION_DOWN:
+			// A new gesture, forget fingers whose up event was missed
+			mGesture.upAll(event.getEventTime());
+			// Fall through
+		case MotionEvent.ACTION_POINTER_DOWN: {
+			final int index = actionIndex(action);
+			mGesture.down(event.getPointerId(index), event.getX(index),
+					event.getY(index), event.getEventTime());
 			break;
 		}
 
 		case MotionEvent.ACTION_MOVE: {
-			final float x = event.getX();
-			final float y = event.getY();
-			final float dx = x - mLastX;
-			final float dy = y - mLastY;
-
-			if (dy > 0 && mLastDY < 0 || dy < 0 && mLastDY > 0) {
-				mStartY = mLastY;
-				mStartTime = mLastTime;
-				mPlayed = false;
-			}
-			if (dx > 0 && mLastDX < 0 || dx < 0 && mLastDX > 0) {
-				mStartX = mLastX;
-				mPlayed = false;
-			}
-
-			if (!mPlayed) {
-				final float scratchDistance = Math.abs(y - mStartY);
-				final float lastScratchDistance = Math.abs(mLastY - mStartY);
-				final float sampleDistance = Math.abs(x - mStartX);
-				final float lastSampleDistance = Math.abs(mLastX - mStartX);
-
-				if (scratchDistance > MIN_SCRATCH_DISTANCE
-						&& lastScratchDistance <= MIN_SCRATCH_DISTANCE) {
-					if (dy < 0)
-						mSounds.playForward(velocity(event, scratchDistance));
-					else if (dy > 0)
-						mSounds.playBackward(velocity(event, scratchDistance));
-					mPlayed = true;
-				} else if (sampleDistance > MIN_SAMPLE_DISTANCE
-						&& lastSampleDistance <= MIN_SAMPLE_DISTANCE) {
-					mSounds.playSample();
-					mPlayed = true;
-				}
+			final int pointerCount = event.getPointerCount();
+			final int historySize = event.getHistorySize();
+			for (int index = 0; index < pointerCount; index++) {
+				final int id = event.getPointerId(index);
+				for (int h = 0; h < historySize; h++)
+					mGesture.history(id, event.getHistoricalY(index, h),
+							event.getHistoricalEventTime(h));
+				mGesture.move(id, event.getX(index), event.getY(index),
+						event.getEventTime());
 			}
-
-			mSpinner.spin(dy, mLastX);
-
-			mLastX = x;
-			mLastY = y;
-			if (dx != 0)
-				mLastDX = dx;
-			if (dy != 0)
-				mLastDY = dy;
-			mLastTime = event.getEventTime();
 			break;
 		}
 
-		case MotionEvent.ACTION_UP: {
-			mSpinner.startRotation();
+		case MotionEvent.ACTION_POINTER_UP:
+			mGesture.up(event.getPointerId(actionIndex(action)),
+					event.getEventTime());
+			break;
+
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_CANCEL:
+			mGesture.upAll(event.getEventTime());
 			break;
-		}
 		}
 
 		return true;
 	}
 
+	private static int actionIndex(int action) {
+		return (action & MotionEvent.ACTION_POINTER_INDEX_MASK)
+				>> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+	}
+
 	/**
-	 * Calculate scratch velocity in pixels per second shortly before a sample
-	 * is played.
+	 * Play the sounds and spin the record for the gesture.
 	 */
-	private float velocity(MotionEvent event, float scratchDistance) {
-		float dt = (float) (event.getEventTime() - mStartTime) / 1000;
-		return scratchDistance / dt;
+	private class GestureListener implements ScratchGesture.Listener {
+		@Override
+		public void onScratchStart() {
+			mSpinner.stopRotation();
+		}
+
+		@Override
+		public void onScratchEnd() {
+			mSpinner.startRotation();
+		}
+
+		@Override
+		public void onSpin(float dy, float offset, float x) {
+			mSpinner.spin(dy, offset, x);
+		}
+
+		@Override
+		public void onForward(float velocity, long time) {
+			mSounds.playForward(velocity, time);
+		}
+
+		@Override
+		public void onBackward(float velocity, long time) {
+			mSounds.playBackward(velocity, time);
+		}
+
+		@Override
+		public void onSample(long time) {
+			mSounds.playSample(time);
+		}
+
+		@Override
+		public void onFader(float level, long time) {
+			mSounds.setFader(level, time);
+		}
+
+		@Override
+		public void onPattern(int pattern, int strokes) {
+			if (LL.isDebugEnabled())
+				LL.debug("onPattern: "
+						+ ScratchClassifier.getPatternName(pattern) + " x"
+						+ strokes);
+		}
 	}
 
 	public void setScratchSoundPool(ScratchSoundPool sounds) {
 		mSounds = sounds;
 	}
 
+	public void dump(String prefix, PrintWriter writer) {
+		mGesture.dump(prefix, writer);
+	}
+
 	public void startRotation() {
 		mSpinner.startRotation();
 	}
@@ -0,0 +1,100 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.view;
+
+import com.brillenheini.deepscratch.time.Scheduler;
+
+/**
+ * Timing of the record rotation. The record turns by a fixed angle in fixed
+ * intervals. After it has been pulled back, it keeps turning backwards with a
+ * decreasing angle before it turns forwards again. The turns are reported to
+ * a listener, so the timing can be simulated without a view.
+ */
+final class Turntable implements Runnable {
+	interface Listener {
+		void onTurn(float degrees);
+	}
+
+	static final int ROTATION_DELAY = 60;
+	static final int ROTATION_ANGLE = 10;
+
+	private final Scheduler mScheduler;
+	private final Listener mListener;
+
+	private float mLastAngle;
+	private int mNextAngle;
+
+	Turntable(Scheduler scheduler, Listener listener) {
+		mScheduler = scheduler;
+		mListener = listener;
+	}
+
+	/**
+	 * Turn the record by the specified amount of degrees.
+	 */
+	public void turn(float degrees) {
+		mListener.onTurn(degrees);
+		mLastAngle = degrees;
+	}
+
+	/**
+	 * Turn the record without changing the angle a pull back starts from. For
+	 * corrections that are not a movement of the finger, like a prediction.
+	 */
+	public void adjust(float degrees) {
+		mListener.onTurn(degrees);
+	}
+
+	/**
+	 * Start rotating the record.
+	 */
+	public void start() {
+		rotateOnce();
+	}
+
+	/**
+	 * Stop rotating the record.
+	 */
+	public void stop() {
+		mScheduler.cancel(this);
+	}
+
+	public float getLastAngle() {
+		return mLastAngle;
+	}
+
+	private void rotateOnce() {
+		int degrees = ROTATION_ANGLE;
+
+		// Pulling back
+		if (mLastAngle < -1)
+			degrees = (int) (mLastAngle * 0.4f - 0.5f);
+
+		mScheduler.cancel(this);
+		mNextAngle = degrees;
+		mScheduler.schedule(this, ROTATION_DELAY);
+	}
+
+	@Override
+	public void run() {
+		turn(mNextAngle);
+		rotateOnce();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+/**
+ * Read bits from a packet, least significant bit first. Reading past the end
+ * of the packet returns zero bits and sets a flag, the Vorbis specification
+ * defines how each decoding step handles that.
+ */
+final class BitReader {
+	private byte[] mData;
+	private int mEnd;
+	private int mPosition;
+	private int mBit;
+	private boolean mEop;
+
+	void reset(byte[] data, int length) {
+		mData = data;
+		mEnd = length;
+		mPosition = 0;
+		mBit = 0;
+		mEop = false;
+	}
+
+	/**
+	 * @return true if an attempt was made to read past the end of the packet
+	 */
+	boolean isEop() {
+		return mEop;
+	}
+
+	int readBit() {
+		if (mPosition >= mEnd) {
+			mEop = true;
+			return 0;
+		}
+		final int bit = (mData[mPosition] >> mBit) & 1;
+		if (++mBit == 8) {
+			mBit = 0;
+			mPosition++;
+		}
+		return bit;
+	}
+
+	/**
+	 * @param bits
+	 *            0 to 32
+	 */
+	int read(int bits) {
+		int value = 0;
+		int shift = 0;
+		while (bits > 0) {
+			if (mPosition >= mEnd) {
+				mEop = true;
+				return value;
+			}
+			final int available = 8 - mBit;
+			final int n = bits < available ? bits : available;
+			final int chunk = ((mData[mPosition] & 0xff) >> mBit)
+					& ((1 << n) - 1);
+			value |= chunk << shift;
+			shift += n;
+			bits -= n;
+			mBit += n;
+			if (mBit == 8) {
+				mBit = 0;
+				mPosition++;
+			}
+		}
+		return value;
+	}
+
+	boolean readFlag() {
+		return readBit() != 0;
+	}
+}
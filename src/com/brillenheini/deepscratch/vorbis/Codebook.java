@@ -0,0 +1,228 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.IOException;
+
+/**
+ * Vorbis codebook: a Huffman code for entry numbers and optionally a vector of
+ * values for each entry. The Huffman code is decoded with a binary tree stored
+ * in an int array.
+ */
+final class Codebook {
+	private static final int SYNC = 0x564342;
+	private static final int INVALID = Integer.MIN_VALUE;
+
+	final int dimensions;
+	final int entries;
+
+	/**
+	 * Nodes of the Huffman tree, two ints per node for the children. A child
+	 * &gt;= 0 is the index of the next node, a negative child -(entry + 1) is a
+	 * leaf.
+	 */
+	private final int[] mTree;
+	/** Vector values, dimensions floats per entry, null without lookup. */
+	private final float[] mValues;
+
+	Codebook(BitReader br) throws IOException {
+		if (br.read(24) != SYNC)
+			throw new IOException("Codebook sync pattern expected");
+		dimensions = br.read(16);
+		entries = br.read(24);
+
+		// Codeword lengths, 0 for unused entries
+		final int[] lengths = new int[entries];
+		if (br.readFlag()) {
+			// Ordered
+			int entry = 0;
+			int length = br.read(5) + 1;
+			while (entry < entries) {
+				final int number = br.read(Vorbis.ilog(entries - entry));
+				if (entry + number > entries)
+					throw new IOException("Invalid codebook lengths");
+				for (int i = entry; i < entry + number; i++)
+					lengths[i] = length;
+				entry += number;
+				length++;
+			}
+		} else {
+			final boolean sparse = br.readFlag();
+			for (int i = 0; i < entries; i++)
+				if (!sparse || br.readFlag())
+					lengths[i] = br.read(5) + 1;
+		}
+		mTree = buildTree(lengths);
+
+		final int lookupType = br.read(4);
+		if (lookupType == 0) {
+			mValues = null;
+		} else if (lookupType == 1 || lookupType == 2) {
+			final float min = Vorbis.float32Unpack(br.read(32));
+			final float delta = Vorbis.float32Unpack(br.read(32));
+			final int valueBits = br.read(4) + 1;
+			final boolean sequenceP = br.readFlag();
+			final int lookupValues = lookupType == 1 ? lookup1Values()
+					: entries * dimensions;
+			final int[] multiplicands = new int[lookupValues];
+			for (int i = 0; i < lookupValues; i++)
+				multiplicands[i] = br.read(valueBits);
+
+			mValues = new float[entries * dimensions];
+			for (int entry = 0; entry < entries; entry++) {
+				float last = 0;
+				int divisor = 1;
+				for (int i = 0; i < dimensions; i++) {
+					final int offset = lookupType == 1 ? (entry / divisor)
+							% lookupValues : entry * dimensions + i;
+					final float value = multiplicands[offset] * delta + min
+							+ last;
+					mValues[entry * dimensions + i] = value;
+					if (sequenceP)
+						last = value;
+					divisor *= lookupValues;
+				}
+			}
+		} else {
+			throw new IOException("Invalid codebook lookup type " + lookupType);
+		}
+		if (br.isEop())
+			throw new IOException("Truncated codebook");
+	}
+
+	/**
+	 * @return the largest number whose power of dimensions is not larger than
+	 *         the number of entries
+	 */
+	private int lookup1Values() {
+		int r = (int) Math.floor(Math.exp(Math.log(entries) / dimensions));
+		// Correct rounding errors of the floating point calculation
+		while (pow(r + 1, dimensions) <= entries)
+			r++;
+		while (r > 0 && pow(r, dimensions) > entries)
+			r--;
+		return r;
+	}
+
+	private static long pow(int base, int exponent) {
+		long result = 1;
+		for (int i = 0; i < exponent && result <= Integer.MAX_VALUE; i++)
+			result *= base;
+		return result;
+	}
+
+	/**
+	 * Assign codewords to the lengths as described in the specification and
+	 * build the decoding tree.
+	 */
+	private static int[] buildTree(int[] lengths) throws IOException {
+		int used = 0;
+		int lastUsed = -1;
+		for (int i = 0; i < lengths.length; i++)
+			if (lengths[i] > 0) {
+				used++;
+				lastUsed = i;
+			}
+
+		final int[] tree = new int[Math.max(2, 2 * used)];
+		tree[0] = tree[1] = INVALID;
+		if (used == 1) {
+			// A single entry has no real codeword, decode it from any bit
+			tree[0] = tree[1] = -(lastUsed + 1);
+			return tree;
+		}
+
+		int nodes = 1;
+		final int[] marker = new int[33];
+		for (int entry = 0; entry < lengths.length; entry++) {
+			final int length = lengths[entry];
+			if (length == 0)
+				continue;
+
+			int code = marker[length];
+			if (length < 32 && (code >>> length) != 0)
+				throw new IOException("Overspecified Huffman tree");
+
+			// Insert the codeword, most significant bit first
+			int node = 0;
+			for (int bit = length - 1; bit > 0; bit--) {
+				final int child = 2 * node + ((code >>> bit) & 1);
+				if (tree[child] == INVALID) {
+					if (2 * nodes + 1 >= tree.length)
+						throw new IOException("Invalid Huffman tree");
+					tree[2 * nodes] = tree[2 * nodes + 1] = INVALID;
+					tree[child] = nodes++;
+				} else if (tree[child] < 0) {
+					throw new IOException("Invalid Huffman tree");
+				}
+				node = tree[child];
+			}
+			tree[2 * node + (code & 1)] = -(entry + 1);
+
+			// Find the next free codeword of each length
+			for (int j = length; j > 0; j--) {
+				if ((marker[j] & 1) != 0) {
+					if (j == 1)
+						marker[1]++;
+					else
+						marker[j] = marker[j - 1] << 1;
+					break;
+				}
+				marker[j]++;
+			}
+			for (int j = length + 1; j < 33; j++) {
+				if ((marker[j] >>> 1) == code) {
+					code = marker[j];
+					marker[j] = marker[j - 1] << 1;
+				} else {
+					break;
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Decode an entry number.
+	 *
+	 * @return the entry or -1 at the end of the packet or for an invalid
+	 *         codeword
+	 */
+	int decodeScalar(BitReader br) {
+		final int[] tree = mTree;
+		int node = 0;
+		while (true) {
+			final int child = tree[2 * node + br.readBit()];
+			if (br.isEop() || child == INVALID)
+				return -1;
+			if (child < 0)
+				return -child - 1;
+			node = child;
+		}
+	}
+
+	/**
+	 * @return the vector values, {@link #dimensions} floats starting at entry
+	 *         * dimensions
+	 */
+	float[] getValues() {
+		return mValues;
+	}
+}
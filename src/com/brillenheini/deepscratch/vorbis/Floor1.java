@@ -0,0 +1,284 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.IOException;
+
+/**
+ * Floor type 1: a piecewise linear spectral envelope on a dB scale. Decoding
+ * is split into reading the points of a channel and rendering them into a
+ * curve, as the residue has to be read in between.
+ */
+final class Floor1 {
+	private static final int[] RANGES = { 256, 128, 86, 64 };
+	private static final float[] INVERSE_DB = new float[256];
+
+	static {
+		// 0.546875dB steps from -140dB to 0dB
+		for (int i = 0; i < 256; i++)
+			INVERSE_DB[i] = (float) Math.pow(10, (i - 255) * 0.546875 / 20);
+	}
+
+	private final int[] mPartitionClasses;
+	private final int[] mClassDimensions;
+	private final int[] mClassSubclasses;
+	private final int[] mClassMasterbooks;
+	private final int[][] mSubclassBooks;
+	private final int mMultiplier;
+	private final int mRange;
+	private final int mValues;
+	private final int[] mX;
+	/** Point indices sorted by x. */
+	private final int[] mSorted;
+	private final int[] mLowNeighbor;
+	private final int[] mHighNeighbor;
+
+	Floor1(BitReader br, int codebooks) throws IOException {
+		final int partitions = br.read(5);
+		mPartitionClasses = new int[partitions];
+		int maxClass = -1;
+		for (int i = 0; i < partitions; i++) {
+			mPartitionClasses[i] = br.read(4);
+			maxClass = Math.max(maxClass, mPartitionClasses[i]);
+		}
+
+		final int classes = maxClass + 1;
+		mClassDimensions = new int[classes];
+		mClassSubclasses = new int[classes];
+		mClassMasterbooks = new int[classes];
+		mSubclassBooks = new int[classes][];
+		for (int i = 0; i < classes; i++) {
+			mClassDimensions[i] = br.read(3) + 1;
+			mClassSubclasses[i] = br.read(2);
+			if (mClassSubclasses[i] != 0) {
+				mClassMasterbooks[i] = br.read(8);
+				checkBook(mClassMasterbooks[i], codebooks);
+			}
+			mSubclassBooks[i] = new int[1 << mClassSubclasses[i]];
+			for (int j = 0; j < mSubclassBooks[i].length; j++) {
+				mSubclassBooks[i][j] = br.read(8) - 1;
+				checkBook(mSubclassBooks[i][j], codebooks);
+			}
+		}
+
+		mMultiplier = br.read(2) + 1;
+		mRange = RANGES[mMultiplier - 1];
+		final int rangeBits = br.read(4);
+		int values = 2;
+		for (int i = 0; i < partitions; i++)
+			values += mClassDimensions[mPartitionClasses[i]];
+		mValues = values;
+		mX = new int[values];
+		mX[0] = 0;
+		mX[1] = 1 << rangeBits;
+		int v = 2;
+		for (int i = 0; i < partitions; i++)
+			for (int j = 0; j < mClassDimensions[mPartitionClasses[i]]; j++)
+				mX[v++] = br.read(rangeBits);
+
+		// Sort by x, insertion sort is fine for at most 65 values
+		mSorted = new int[values];
+		for (int i = 0; i < values; i++) {
+			int j = i;
+			while (j > 0 && mX[mSorted[j - 1]] > mX[i]) {
+				mSorted[j] = mSorted[j - 1];
+				j--;
+			}
+			mSorted[j] = i;
+		}
+
+		mLowNeighbor = new int[values];
+		mHighNeighbor = new int[values];
+		for (int i = 2; i < values; i++) {
+			int low = 0, high = 1;
+			for (int j = 0; j < i; j++) {
+				if (mX[j] < mX[i] && mX[j] > mX[low])
+					low = j;
+				if (mX[j] > mX[i] && mX[j] < mX[high])
+					high = j;
+			}
+			mLowNeighbor[i] = low;
+			mHighNeighbor[i] = high;
+		}
+	}
+
+	private static void checkBook(int book, int codebooks) throws IOException {
+		if (book >= codebooks)
+			throw new IOException("Invalid codebook number " + book);
+	}
+
+	/**
+	 * @return number of points, the size of the arrays passed to
+	 *         {@link #decode(BitReader, Codebook[], int[])}
+	 */
+	int getValues() {
+		return mValues;
+	}
+
+	/**
+	 * Read the points of a channel.
+	 *
+	 * @param y
+	 *            receives the y values of the points
+	 * @return false if the channel is unused, also after an unexpected end
+	 *         of the packet
+	 */
+	boolean decode(BitReader br, Codebook[] books, int[] y) {
+		if (!br.readFlag())
+			return false;
+
+		final int bits = Vorbis.ilog(mRange - 1);
+		y[0] = br.read(bits);
+		y[1] = br.read(bits);
+		int offset = 2;
+		for (int i = 0; i < mPartitionClasses.length; i++) {
+			final int cls = mPartitionClasses[i];
+			final int cdim = mClassDimensions[cls];
+			final int cbits = mClassSubclasses[cls];
+			final int csub = (1 << cbits) - 1;
+			int cval = 0;
+			if (cbits > 0) {
+				cval = books[mClassMasterbooks[cls]].decodeScalar(br);
+				if (cval < 0)
+					return false;
+			}
+			for (int j = 0; j < cdim; j++) {
+				final int book = mSubclassBooks[cls][cval & csub];
+				cval >>>= cbits;
+				int value = 0;
+				if (book >= 0) {
+					value = books[book].decodeScalar(br);
+					if (value < 0)
+						return false;
+				}
+				y[offset + j] = value;
+			}
+			offset += cdim;
+		}
+		return !br.isEop();
+	}
+
+	/**
+	 * Calculate the curve from the points and multiply it with the spectrum.
+	 *
+	 * @param y
+	 *            the points from {@link #decode(BitReader, Codebook[], int[])},
+	 *            overwritten
+	 * @param step2
+	 *            temporary flags, at least {@link #getValues()} long
+	 * @param spectrum
+	 *            n / 2 values to multiply
+	 */
+	void apply(int[] y, boolean[] step2, float[] spectrum, int n2) {
+		// Amplitude values
+		step2[0] = step2[1] = true;
+		for (int i = 2; i < mValues; i++) {
+			final int low = mLowNeighbor[i];
+			final int high = mHighNeighbor[i];
+			final int predicted = renderPoint(mX[low], y[low], mX[high],
+					y[high], mX[i]);
+			final int value = y[i];
+			final int highRoom = mRange - predicted;
+			final int lowRoom = predicted;
+			final int room = (highRoom < lowRoom ? highRoom : lowRoom) * 2;
+			if (value != 0) {
+				step2[low] = step2[high] = step2[i] = true;
+				if (value >= room) {
+					if (highRoom > lowRoom)
+						y[i] = value - lowRoom + predicted;
+					else
+						y[i] = predicted - value + highRoom - 1;
+				} else if ((value & 1) != 0) {
+					y[i] = predicted - (value + 1) / 2;
+				} else {
+					y[i] = predicted + value / 2;
+				}
+			} else {
+				step2[i] = false;
+				y[i] = predicted;
+			}
+		}
+
+		// Curve
+		int lx = 0;
+		int ly = y[mSorted[0]] * mMultiplier;
+		int hx = 0;
+		int hy = 0;
+		for (int j = 1; j < mValues; j++) {
+			final int i = mSorted[j];
+			if (step2[i]) {
+				hy = y[i] * mMultiplier;
+				hx = mX[i];
+				renderLine(lx, ly, hx, hy, spectrum, n2);
+				lx = hx;
+				ly = hy;
+			}
+		}
+		if (hx < n2)
+			renderLine(hx, hy, n2, hy, spectrum, n2);
+	}
+
+	private static int renderPoint(int x0, int y0, int x1, int y1, int x) {
+		final int dy = y1 - y0;
+		final int adx = x1 - x0;
+		if (adx <= 0)
+			return y0;
+		final int ady = Math.abs(dy);
+		final int err = ady * (x - x0);
+		final int off = err / adx;
+		return dy < 0 ? y0 - off : y0 + off;
+	}
+
+	/**
+	 * Multiply the spectrum with a line of the curve, from x0 inclusive to x1
+	 * exclusive.
+	 */
+	private static void renderLine(int x0, int y0, int x1, int y1,
+			float[] spectrum, int n2) {
+		final int dy = y1 - y0;
+		final int adx = x1 - x0;
+		if (adx <= 0)
+			return;
+		int ady = Math.abs(dy);
+		final int base = dy / adx;
+		final int sy = dy < 0 ? base - 1 : base + 1;
+		int x = x0;
+		int y = y0;
+		int err = 0;
+		ady -= Math.abs(base) * adx;
+		final int end = Math.min(x1, n2);
+		if (x < end)
+			spectrum[x] *= INVERSE_DB[clamp(y)];
+		for (x = x0 + 1; x < end; x++) {
+			err += ady;
+			if (err >= adx) {
+				err -= adx;
+				y += sy;
+			} else {
+				y += base;
+			}
+			spectrum[x] *= INVERSE_DB[clamp(y)];
+		}
+	}
+
+	private static int clamp(int y) {
+		return y < 0 ? 0 : y > 255 ? 255 : y;
+	}
+}
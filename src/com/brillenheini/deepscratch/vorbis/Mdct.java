@@ -0,0 +1,158 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+/**
+ * Inverse MDCT of one block size, computed with a DCT-IV of half the size,
+ * which in turn uses a complex FFT of a quarter of the size. All tables and
+ * buffers are allocated in the constructor.
+ */
+final class Mdct {
+	private final int mN;
+	private final int mM;
+	private final int mQ;
+
+	// Twiddle factors
+	private final float[] mPreCos;
+	private final float[] mPreSin;
+	private final float[] mPostCos;
+	private final float[] mPostSin;
+	private final float[] mFftCos;
+	private final float[] mFftSin;
+	private final int[] mBitReverse;
+
+	// Work buffers
+	private final float[] mRe;
+	private final float[] mIm;
+	private final float[] mDct;
+
+	/**
+	 * @param n
+	 *            block size, a power of two of at least 16
+	 */
+	Mdct(int n) {
+		mN = n;
+		mM = n / 2;
+		mQ = n / 4;
+
+		mPreCos = new float[mQ];
+		mPreSin = new float[mQ];
+		mPostCos = new float[mQ];
+		mPostSin = new float[mQ];
+		for (int k = 0; k < mQ; k++) {
+			double a = -Math.PI * (4 * k + 1) / (4.0 * mM);
+			mPreCos[k] = (float) Math.cos(a);
+			mPreSin[k] = (float) Math.sin(a);
+			double b = -Math.PI * k / mM;
+			mPostCos[k] = (float) Math.cos(b);
+			mPostSin[k] = (float) Math.sin(b);
+		}
+
+		mFftCos = new float[mQ / 2];
+		mFftSin = new float[mQ / 2];
+		for (int k = 0; k < mQ / 2; k++) {
+			double a = -2 * Math.PI * k / mQ;
+			mFftCos[k] = (float) Math.cos(a);
+			mFftSin[k] = (float) Math.sin(a);
+		}
+
+		final int bits = Vorbis.ilog(mQ) - 1;
+		mBitReverse = new int[mQ];
+		for (int i = 0; i < mQ; i++) {
+			int r = 0;
+			for (int b = 0; b < bits; b++)
+				if ((i & (1 << b)) != 0)
+					r |= 1 << (bits - 1 - b);
+			mBitReverse[i] = r;
+		}
+
+		mRe = new float[mQ];
+		mIm = new float[mQ];
+		mDct = new float[mM];
+	}
+
+	/**
+	 * Transform n / 2 coefficients into n samples.
+	 */
+	void inverse(float[] in, float[] out) {
+		final int m = mM;
+		final int q = mQ;
+		final float[] re = mRe;
+		final float[] im = mIm;
+
+		// Pre twiddle into bit reversed order
+		for (int k = 0; k < q; k++) {
+			final float a = in[2 * k];
+			final float b = in[m - 1 - 2 * k];
+			final float c = mPreCos[k];
+			final float s = mPreSin[k];
+			final int r = mBitReverse[k];
+			re[r] = a * c - b * s;
+			im[r] = a * s + b * c;
+		}
+
+		fft(re, im);
+
+		// Post twiddle into the DCT-IV
+		final float[] dct = mDct;
+		for (int k = 0; k < q; k++) {
+			final float c = mPostCos[k];
+			final float s = mPostSin[k];
+			final float x = re[k] * c - im[k] * s;
+			final float y = re[k] * s + im[k] * c;
+			dct[2 * k] = x;
+			dct[m - 1 - 2 * k] = -y;
+		}
+
+		// Unfold the DCT-IV into the MDCT output
+		final int half = m / 2;
+		for (int i = 0; i < half; i++)
+			out[i] = dct[i + half];
+		for (int i = half; i < half + m; i++)
+			out[i] = -dct[m + half - 1 - i];
+		for (int i = half + m; i < mN; i++)
+			out[i] = -dct[i - half - m];
+	}
+
+	/**
+	 * In place radix 2 FFT of input in bit reversed order.
+	 */
+	private void fft(float[] re, float[] im) {
+		final int n = mQ;
+		for (int size = 2; size <= n; size <<= 1) {
+			final int halfSize = size >> 1;
+			final int step = n / size;
+			for (int start = 0; start < n; start += size) {
+				for (int j = 0; j < halfSize; j++) {
+					final float c = mFftCos[j * step];
+					final float s = mFftSin[j * step];
+					final int a = start + j;
+					final int b = a + halfSize;
+					final float tr = re[b] * c - im[b] * s;
+					final float ti = re[b] * s + im[b] * c;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+	}
+}
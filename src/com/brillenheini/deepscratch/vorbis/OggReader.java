@@ -0,0 +1,232 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Split an Ogg stream into packets. Only streams with a single logical
+ * bitstream are supported, which is what Vorbis files are. The page and packet
+ * buffers are reused and only grow if a larger page or packet turns up.
+ *
+ * @see <a href="http://www.xiph.org/ogg/doc/framing.html">Ogg framing</a>
+ */
+final class OggReader {
+	private static final int HEADER_SIZE = 27;
+	private static final int FLAG_CONTINUED = 0x01;
+	private static final int FLAG_EOS = 0x04;
+
+	private static final int[] CRC_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int r = i << 24;
+			for (int j = 0; j < 8; j++)
+				r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04c11db7 : r << 1;
+			CRC_TABLE[i] = r;
+		}
+	}
+
+	// Exactly one of them is set
+	private final InputStream mStream;
+	private final ByteBuffer mBuffer;
+
+	private final byte[] mHeader = new byte[HEADER_SIZE + 255];
+	private byte[] mPage = new byte[4096];
+	private int mSegments;
+	private int mSegment;
+	private int mPageOffset;
+	private int mFlags;
+	private long mGranule;
+	private boolean mPageRead = false;
+
+	private byte[] mPacket = new byte[4096];
+	private int mPacketSize;
+	private long mPacketGranule;
+	private boolean mEos = false;
+
+	OggReader(InputStream stream) {
+		mStream = stream;
+		mBuffer = null;
+	}
+
+	OggReader(ByteBuffer buffer) {
+		mStream = null;
+		mBuffer = buffer;
+	}
+
+	/**
+	 * Read the next packet.
+	 *
+	 * @return false at the end of the stream
+	 */
+	boolean nextPacket() throws IOException {
+		mPacketSize = 0;
+		mPacketGranule = -1;
+		boolean continued = false;
+		while (true) {
+			if (!mPageRead || mSegment == mSegments) {
+				if (mEos || !readPage())
+					return false;
+				if ((mFlags & FLAG_CONTINUED) != 0 && !continued) {
+					// Rest of a packet we did not see the start of
+					skipContinuation();
+				}
+			}
+
+			// Collect segments until one is shorter than 255
+			while (mSegment < mSegments) {
+				final int length = mHeader[HEADER_SIZE + mSegment++] & 0xff;
+				appendPacket(mPageOffset, length);
+				mPageOffset += length;
+				if (length < 255) {
+					if (mSegment == mSegments) {
+						mPacketGranule = mGranule;
+						if ((mFlags & FLAG_EOS) != 0)
+							mEos = true;
+					}
+					return true;
+				}
+			}
+			continued = true;
+		}
+	}
+
+	byte[] getPacket() {
+		return mPacket;
+	}
+
+	int getPacketSize() {
+		return mPacketSize;
+	}
+
+	/**
+	 * @return granule position of the page if the packet is the last one
+	 *         finished on it, -1 otherwise
+	 */
+	long getPacketGranule() {
+		return mPacketGranule;
+	}
+
+	/**
+	 * @return true if the packet is the last one of the stream
+	 */
+	boolean isEos() {
+		return mEos;
+	}
+
+	private void skipContinuation() {
+		while (mSegment < mSegments) {
+			final int length = mHeader[HEADER_SIZE + mSegment++] & 0xff;
+			mPageOffset += length;
+			if (length < 255)
+				break;
+		}
+	}
+
+	private void appendPacket(int offset, int length) {
+		if (mPacketSize + length > mPacket.length) {
+			byte[] packet = new byte[Math.max(mPacket.length * 2, mPacketSize
+					+ length)];
+			System.arraycopy(mPacket, 0, packet, 0, mPacketSize);
+			mPacket = packet;
+		}
+		System.arraycopy(mPage, offset, mPacket, mPacketSize, length);
+		mPacketSize += length;
+	}
+
+	/**
+	 * @return false at the end of the stream
+	 */
+	private boolean readPage() throws IOException {
+		if (!read(mHeader, 0, HEADER_SIZE, true))
+			return false;
+		if (mHeader[0] != 'O' || mHeader[1] != 'g' || mHeader[2] != 'g'
+				|| mHeader[3] != 'S')
+			throw new IOException("Ogg page expected");
+		if (mHeader[4] != 0)
+			throw new IOException("Unsupported Ogg version " + mHeader[4]);
+		mFlags = mHeader[5];
+		mGranule = 0;
+		for (int i = 13; i >= 6; i--)
+			mGranule = (mGranule << 8) | (mHeader[i] & 0xff);
+		final int crc = (mHeader[22] & 0xff) | (mHeader[23] & 0xff) << 8
+				| (mHeader[24] & 0xff) << 16 | (mHeader[25] & 0xff) << 24;
+		mSegments = mHeader[26] & 0xff;
+		read(mHeader, HEADER_SIZE, mSegments, false);
+
+		int size = 0;
+		for (int i = 0; i < mSegments; i++)
+			size += mHeader[HEADER_SIZE + i] & 0xff;
+		if (size > mPage.length)
+			mPage = new byte[size];
+		read(mPage, 0, size, false);
+
+		// The checksum is calculated with the checksum field set to 0
+		mHeader[22] = mHeader[23] = mHeader[24] = mHeader[25] = 0;
+		int check = crc(0, mHeader, 0, HEADER_SIZE + mSegments);
+		check = crc(check, mPage, 0, size);
+		if (check != crc)
+			throw new IOException("Ogg page checksum mismatch");
+
+		mSegment = 0;
+		mPageOffset = 0;
+		mPageRead = true;
+		return true;
+	}
+
+	private static int crc(int crc, byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++)
+			crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data[i]) & 0xff];
+		return crc;
+	}
+
+	/**
+	 * @param eofAllowed
+	 *            return false instead of throwing if the stream ends before
+	 *            the first byte
+	 */
+	private boolean read(byte[] b, int offset, int length, boolean eofAllowed)
+			throws IOException {
+		if (mBuffer != null) {
+			if (mBuffer.remaining() == 0 && eofAllowed)
+				return false;
+			if (mBuffer.remaining() < length)
+				throw new EOFException("Truncated Ogg page");
+			mBuffer.get(b, offset, length);
+			return true;
+		}
+
+		int done = 0;
+		while (done < length) {
+			int n = mStream.read(b, offset + done, length - done);
+			if (n < 0) {
+				if (done == 0 && eofAllowed)
+					return false;
+				throw new EOFException("Truncated Ogg page");
+			}
+			done += n;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Residue types 0, 1 and 2: the fine structure of the spectrum, coded in
+ * partitions that are classified first and then filled in up to eight passes.
+ */
+final class Residue {
+	private final int mType;
+	private final int mBegin;
+	private final int mEnd;
+	private final int mPartitionSize;
+	private final int mClassifications;
+	private final int mClassbook;
+	/** Codebook per classification and pass, -1 if unused. */
+	private final int[][] mBooks;
+
+	// Scratch buffers, allocated by allocate()
+	private int[][] mClasses;
+	private float[] mInterleaved;
+	private final float[][] mSingle = new float[1][];
+	private final boolean[] mSingleSkip = new boolean[1];
+
+	Residue(BitReader br, int type, Codebook[] codebooks) throws IOException {
+		mType = type;
+		mBegin = br.read(24);
+		mEnd = br.read(24);
+		mPartitionSize = br.read(24) + 1;
+		mClassifications = br.read(6) + 1;
+		mClassbook = br.read(8);
+		if (mClassbook >= codebooks.length)
+			throw new IOException("Invalid residue classbook");
+
+		final int[] cascade = new int[mClassifications];
+		for (int i = 0; i < mClassifications; i++) {
+			int high = 0;
+			final int low = br.read(3);
+			if (br.readFlag())
+				high = br.read(5);
+			cascade[i] = high * 8 + low;
+		}
+		mBooks = new int[mClassifications][8];
+		for (int i = 0; i < mClassifications; i++) {
+			for (int j = 0; j < 8; j++) {
+				if ((cascade[i] & (1 << j)) != 0) {
+					mBooks[i][j] = br.read(8);
+					if (mBooks[i][j] >= codebooks.length
+							|| codebooks[mBooks[i][j]].getValues() == null)
+						throw new IOException("Invalid residue codebook");
+				} else {
+					mBooks[i][j] = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Allocate the scratch buffers for the largest block.
+	 *
+	 * @param maxN2
+	 *            half of the long block size
+	 */
+	void allocate(int channels, int maxN2, Codebook[] codebooks) {
+		final int size = mType == 2 ? channels * maxN2 : maxN2;
+		final int classwords = codebooks[mClassbook].dimensions;
+		final int vectors = mType == 2 ? 1 : channels;
+		mClasses = new int[vectors][size / mPartitionSize + classwords];
+		if (mType == 2)
+			mInterleaved = new float[size];
+	}
+
+	/**
+	 * Decode the residue vectors of a submap. The vectors have to be zeroed.
+	 *
+	 * @param vectors
+	 *            one vector of n / 2 values per channel
+	 * @param skip
+	 *            channels not to decode
+	 * @param count
+	 *            number of channels
+	 */
+	void decode(BitReader br, Codebook[] books, float[][] vectors,
+			boolean[] skip, int count, int n2) {
+		if (mType != 2) {
+			decodePartitions(br, books, vectors, skip, count, n2);
+			return;
+		}
+
+		boolean any = false;
+		for (int c = 0; c < count; c++)
+			any |= !skip[c];
+		if (!any)
+			return;
+
+		// Type 2 decodes all channels interleaved into one vector
+		final float[] interleaved = mInterleaved;
+		final int size = count * n2;
+		Arrays.fill(interleaved, 0, size, 0);
+		mSingle[0] = interleaved;
+		mSingleSkip[0] = false;
+		decodePartitions(br, books, mSingle, mSingleSkip, 1, size);
+		for (int c = 0; c < count; c++) {
+			final float[] v = vectors[c];
+			for (int i = 0, k = c; i < n2; i++, k += count)
+				v[i] = interleaved[k];
+		}
+	}
+
+	private void decodePartitions(BitReader br, Codebook[] books,
+			float[][] vectors, boolean[] skip, int count, int actualSize) {
+		final int begin = Math.min(mBegin, actualSize);
+		final int end = Math.min(mEnd, actualSize);
+		final Codebook classbook = books[mClassbook];
+		final int classwords = classbook.dimensions;
+		final int partitions = (end - begin) / mPartitionSize;
+		if (partitions <= 0)
+			return;
+
+		for (int pass = 0; pass < 8; pass++) {
+			int partition = 0;
+			while (partition < partitions) {
+				if (pass == 0) {
+					for (int j = 0; j < count; j++) {
+						if (skip[j])
+							continue;
+						int temp = classbook.decodeScalar(br);
+						if (temp < 0)
+							return;
+						final int[] classes = mClasses[j];
+						for (int i = classwords - 1; i >= 0; i--) {
+							classes[i + partition] = temp % mClassifications;
+							temp /= mClassifications;
+						}
+					}
+				}
+				for (int i = 0; i < classwords && partition < partitions; i++) {
+					for (int j = 0; j < count; j++) {
+						if (skip[j])
+							continue;
+						final int book = mBooks[mClasses[j][partition]][pass];
+						if (book < 0)
+							continue;
+						final int offset = begin + partition * mPartitionSize;
+						if (!decodePartition(br, books[book], vectors[j],
+								offset))
+							return;
+					}
+					partition++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return false at the end of the packet
+	 */
+	private boolean decodePartition(BitReader br, Codebook book, float[] v,
+			int offset) {
+		final float[] values = book.getValues();
+		final int dimensions = book.dimensions;
+		if (mType == 0) {
+			final int step = mPartitionSize / dimensions;
+			for (int i = 0; i < step; i++) {
+				final int entry = book.decodeScalar(br);
+				if (entry < 0)
+					return false;
+				final int e = entry * dimensions;
+				for (int j = 0; j < dimensions; j++)
+					v[offset + i + j * step] += values[e + j];
+			}
+		} else {
+			int i = 0;
+			while (i < mPartitionSize) {
+				final int entry = book.decodeScalar(br);
+				if (entry < 0)
+					return false;
+				final int e = entry * dimensions;
+				for (int j = 0; j < dimensions && i < mPartitionSize; j++)
+					v[offset + i++] += values[e + j];
+			}
+		}
+		return true;
+	}
+}
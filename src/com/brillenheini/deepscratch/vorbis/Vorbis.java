@@ -0,0 +1,48 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+/**
+ * Helper functions of the Vorbis specification.
+ */
+final class Vorbis {
+	private Vorbis() {
+	}
+
+	/**
+	 * @return number of bits needed to represent a value
+	 */
+	static int ilog(int x) {
+		int bits = 0;
+		while (x > 0) {
+			bits++;
+			x >>>= 1;
+		}
+		return bits;
+	}
+
+	static float float32Unpack(int x) {
+		int mantissa = x & 0x1fffff;
+		final int exponent = (x & 0x7fe00000) >>> 21;
+		if ((x & 0x80000000) != 0)
+			mantissa = -mantissa;
+		return (float) (mantissa * Math.pow(2, exponent - 788));
+	}
+}
@@ -0,0 +1,520 @@
+/*
+ * Deep Scratch for Android
+ * Copyright (C) 2013 Stefan Schweizer
+ *
+ * This file is part of Deep Scratch.
+ *
+ * Deep Scratch is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Deep Scratch is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Deep Scratch.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.brillenheini.deepscratch.vorbis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Streaming decoder for Ogg Vorbis files written in plain Java, so it runs on
+ * the device as well as on a JVM. Decoded audio is pulled in chunks of any size
+ * with {@link #read(float[], int, int)} or {@link #read(short[], int, int)}.
+ * All buffers are allocated when the headers have been read, decoding does not
+ * allocate memory unless a packet is larger than all before.
+ * <p>
+ * Floor type 0 is not supported, it has not been used by encoders since
+ * libvorbis 1.0.
+ *
+ * @see <a href="http://www.xiph.org/vorbis/doc/Vorbis_I_spec.html">Vorbis I
+ *      specification</a>
+ */
+public final class VorbisDecoder {
+	private static final int PACKET_IDENTIFICATION = 1;
+	private static final int PACKET_COMMENT = 3;
+	private static final int PACKET_SETUP = 5;
+
+	private final OggReader mOgg;
+	private final BitReader mBits = new BitReader();
+
+	// Identification header
+	private int mChannels;
+	private int mSampleRate;
+	private final int[] mBlockSizes = new int[2];
+
+	// Setup header
+	private Codebook[] mCodebooks;
+	private Floor1[] mFloors;
+	private Residue[] mResidues;
+	private int[] mMappingSubmaps;
+	private int[][] mMappingMux;
+	private int[][] mMappingFloor;
+	private int[][] mMappingResidue;
+	private int[][] mMappingMagnitude;
+	private int[][] mMappingAngle;
+	private boolean[] mModeBlockFlag;
+	private int[] mModeMapping;
+
+	// Decoding state and buffers
+	private final Mdct[] mMdct = new Mdct[2];
+	private final float[][] mSlopes = new float[2][];
+	private float[][] mResidue;
+	private float[][] mBlock;
+	private float[][] mOverlap;
+	private int[][] mFloorY;
+	private boolean[] mFloorUsed;
+	private boolean[] mNonzero;
+	private boolean[] mStep2;
+	private float[][] mSubmapVectors;
+	private boolean[] mSubmapSkip;
+	private int mPreviousN = 0;
+
+	// Decoded frames not read yet
+	private float[][] mPcm;
+	private int mPcmPosition;
+	private int mPcmFrames;
+	private long mFramesDecoded;
+	private boolean mEnd = false;
+
+	/**
+	 * Read the headers from a stream.
+	 *
+	 * @throws IOException
+	 *             if the stream cannot be read or is not a supported Vorbis
+	 *             stream
+	 */
+	public VorbisDecoder(InputStream in) throws IOException {
+		mOgg = new OggReader(in);
+		readHeaders();
+	}
+
+	/**
+	 * Read the headers from a buffer. The position of the buffer is advanced
+	 * while decoding.
+	 */
+	public VorbisDecoder(ByteBuffer in) throws IOException {
+		mOgg = new OggReader(in);
+		readHeaders();
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	public int getSampleRate() {
+		return mSampleRate;
+	}
+
+	/**
+	 * @return number of frames decoded so far, including frames not read yet
+	 */
+	public long getFramesDecoded() {
+		return mFramesDecoded;
+	}
+
+	/**
+	 * Read interleaved float samples from -1 to 1.
+	 *
+	 * @param buffer
+	 *            receives {@link #getChannels()} samples per frame
+	 * @param offset
+	 *            index of the first sample in the buffer
+	 * @param frames
+	 *            maximum number of frames to read
+	 * @return number of frames read, -1 at the end of the stream
+	 */
+	public int read(float[] buffer, int offset, int frames) throws IOException {
+		int done = 0;
+		while (done < frames) {
+			if (mPcmPosition == mPcmFrames && !decodeNext())
+				break;
+			final int n = Math.min(frames - done, mPcmFrames - mPcmPosition);
+			final int channels = mChannels;
+			for (int c = 0; c < channels; c++) {
+				final float[] pcm = mPcm[c];
+				int o = offset + done * channels + c;
+				for (int i = mPcmPosition; i < mPcmPosition + n; i++) {
+					buffer[o] = pcm[i];
+					o += channels;
+				}
+			}
+			mPcmPosition += n;
+			done += n;
+		}
+		return done == 0 && frames > 0 ? -1 : done;
+	}
+
+	/**
+	 * Read interleaved 16 bit samples.
+	 *
+	 * @see #read(float[], int, int)
+	 */
+	public int read(short[] buffer, int offset, int frames) throws IOException {
+		int done = 0;
+		while (done < frames) {
+			if (mPcmPosition == mPcmFrames && !decodeNext())
+				break;
+			final int n = Math.min(frames - done, mPcmFrames - mPcmPosition);
+			final int channels = mChannels;
+			for (int c = 0; c < channels; c++) {
+				final float[] pcm = mPcm[c];
+				int o = offset + done * channels + c;
+				for (int i = mPcmPosition; i < mPcmPosition + n; i++) {
+					int s = Math.round(pcm[i] * 32767);
+					buffer[o] = (short) (s > 32767 ? 32767 : s < -32768 ? -32768
+							: s);
+					o += channels;
+				}
+			}
+			mPcmPosition += n;
+			done += n;
+		}
+		return done == 0 && frames > 0 ? -1 : done;
+	}
+
+	private void readHeaders() throws IOException {
+		readIdentification(nextHeader(PACKET_IDENTIFICATION));
+		nextHeader(PACKET_COMMENT);
+		readSetup(nextHeader(PACKET_SETUP));
+		allocate();
+	}
+
+	private BitReader nextHeader(int type) throws IOException {
+		if (!mOgg.nextPacket())
+			throw new IOException("Vorbis header missing");
+		final BitReader br = mBits;
+		br.reset(mOgg.getPacket(), mOgg.getPacketSize());
+		if (br.read(8) != type || br.read(8) != 'v' || br.read(8) != 'o'
+				|| br.read(8) != 'r' || br.read(8) != 'b' || br.read(8) != 'i'
+				|| br.read(8) != 's')
+			throw new IOException("Vorbis header " + type + " expected");
+		return br;
+	}
+
+	private void readIdentification(BitReader br) throws IOException {
+		if (br.read(32) != 0)
+			throw new IOException("Unsupported Vorbis version");
+		mChannels = br.read(8);
+		mSampleRate = br.read(32);
+		br.read(32); // bitrate maximum
+		br.read(32); // bitrate nominal
+		br.read(32); // bitrate minimum
+		mBlockSizes[0] = 1 << br.read(4);
+		mBlockSizes[1] = 1 << br.read(4);
+		if (mChannels == 0 || mSampleRate <= 0 || mBlockSizes[0] < 64
+				|| mBlockSizes[1] < mBlockSizes[0] || mBlockSizes[1] > 8192
+				|| !br.readFlag())
+			throw new IOException("Invalid Vorbis identification header");
+	}
+
+	private void readSetup(BitReader br) throws IOException {
+		mCodebooks = new Codebook[br.read(8) + 1];
+		for (int i = 0; i < mCodebooks.length; i++)
+			mCodebooks[i] = new Codebook(br);
+
+		// Time domain transforms are placeholders
+		final int times = br.read(6) + 1;
+		for (int i = 0; i < times; i++)
+			if (br.read(16) != 0)
+				throw new IOException("Invalid time domain transform");
+
+		mFloors = new Floor1[br.read(6) + 1];
+		for (int i = 0; i < mFloors.length; i++) {
+			final int type = br.read(16);
+			if (type != 1)
+				throw new IOException("Unsupported floor type " + type);
+			mFloors[i] = new Floor1(br, mCodebooks.length);
+		}
+
+		mResidues = new Residue[br.read(6) + 1];
+		for (int i = 0; i < mResidues.length; i++) {
+			final int type = br.read(16);
+			if (type > 2)
+				throw new IOException("Invalid residue type " + type);
+			mResidues[i] = new Residue(br, type, mCodebooks);
+		}
+
+		final int mappings = br.read(6) + 1;
+		mMappingSubmaps = new int[mappings];
+		mMappingMux = new int[mappings][];
+		mMappingFloor = new int[mappings][];
+		mMappingResidue = new int[mappings][];
+		mMappingMagnitude = new int[mappings][];
+		mMappingAngle = new int[mappings][];
+		final int channelBits = Vorbis.ilog(mChannels - 1);
+		for (int i = 0; i < mappings; i++) {
+			if (br.read(16) != 0)
+				throw new IOException("Invalid mapping type");
+			final int submaps = br.readFlag() ? br.read(4) + 1 : 1;
+			final int steps = br.readFlag() ? br.read(8) + 1 : 0;
+			mMappingMagnitude[i] = new int[steps];
+			mMappingAngle[i] = new int[steps];
+			for (int j = 0; j < steps; j++) {
+				final int magnitude = br.read(channelBits);
+				final int angle = br.read(channelBits);
+				if (magnitude == angle || magnitude >= mChannels
+						|| angle >= mChannels)
+					throw new IOException("Invalid channel coupling");
+				mMappingMagnitude[i][j] = magnitude;
+				mMappingAngle[i][j] = angle;
+			}
+			if (br.read(2) != 0)
+				throw new IOException("Invalid mapping");
+			mMappingMux[i] = new int[mChannels];
+			if (submaps > 1)
+				for (int c = 0; c < mChannels; c++) {
+					mMappingMux[i][c] = br.read(4);
+					if (mMappingMux[i][c] >= submaps)
+						throw new IOException("Invalid mapping mux");
+				}
+			mMappingSubmaps[i] = submaps;
+			mMappingFloor[i] = new int[submaps];
+			mMappingResidue[i] = new int[submaps];
+			for (int j = 0; j < submaps; j++) {
+				br.read(8); // time configuration, unused
+				mMappingFloor[i][j] = br.read(8);
+				mMappingResidue[i][j] = br.read(8);
+				if (mMappingFloor[i][j] >= mFloors.length
+						|| mMappingResidue[i][j] >= mResidues.length)
+					throw new IOException("Invalid mapping submap");
+			}
+		}
+
+		final int modes = br.read(6) + 1;
+		mModeBlockFlag = new boolean[modes];
+		mModeMapping = new int[modes];
+		for (int i = 0; i < modes; i++) {
+			mModeBlockFlag[i] = br.readFlag();
+			br.read(16); // window type
+			br.read(16); // transform type
+			mModeMapping[i] = br.read(8);
+			if (mModeMapping[i] >= mappings)
+				throw new IOException("Invalid mode");
+		}
+
+		if (!br.readFlag() || br.isEop())
+			throw new IOException("Invalid Vorbis setup header");
+	}
+
+	private void allocate() {
+		final int channels = mChannels;
+		final int n1 = mBlockSizes[1];
+		for (int i = 0; i < 2; i++) {
+			final int n = mBlockSizes[i];
+			mMdct[i] = new Mdct(n);
+			// Rising half of the Vorbis window
+			final int half = n / 2;
+			mSlopes[i] = new float[half];
+			for (int j = 0; j < half; j++) {
+				final double s = Math.sin((j + 0.5) / half * Math.PI / 2);
+				mSlopes[i][j] = (float) Math.sin(Math.PI / 2 * s * s);
+			}
+		}
+
+		int floorValues = 0;
+		for (Floor1 floor : mFloors)
+			floorValues = Math.max(floorValues, floor.getValues());
+		for (Residue residue : mResidues)
+			residue.allocate(channels, n1 / 2, mCodebooks);
+
+		mResidue = new float[channels][n1 / 2];
+		mBlock = new float[channels][n1];
+		mOverlap = new float[channels][n1 / 2];
+		mPcm = new float[channels][n1 / 2];
+		mFloorY = new int[channels][floorValues];
+		mFloorUsed = new boolean[channels];
+		mNonzero = new boolean[channels];
+		mStep2 = new boolean[floorValues];
+		mSubmapVectors = new float[channels][];
+		mSubmapSkip = new boolean[channels];
+	}
+
+	/**
+	 * Decode packets until one produces frames.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean decodeNext() throws IOException {
+		mPcmPosition = 0;
+		mPcmFrames = 0;
+		while (!mEnd) {
+			if (!mOgg.nextPacket()) {
+				mEnd = true;
+				break;
+			}
+			int frames = decodePacket();
+
+			// The granule position of the last page cuts off the end
+			final long granule = mOgg.getPacketGranule();
+			if (mOgg.isEos()) {
+				if (granule >= 0 && mFramesDecoded + frames > granule)
+					frames = (int) Math.max(0, granule - mFramesDecoded);
+				mEnd = true;
+			}
+
+			mFramesDecoded += frames;
+			if (frames > 0) {
+				mPcmFrames = frames;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Decode an audio packet into {@link #mPcm}.
+	 *
+	 * @return number of frames decoded
+	 */
+	private int decodePacket() {
+		final BitReader br = mBits;
+		br.reset(mOgg.getPacket(), mOgg.getPacketSize());
+		if (br.readFlag())
+			return 0; // not an audio packet
+
+		final int mode = br.read(Vorbis.ilog(mModeBlockFlag.length - 1));
+		if (br.isEop() || mode >= mModeBlockFlag.length)
+			return 0;
+		final int blockFlag = mModeBlockFlag[mode] ? 1 : 0;
+		final int n = mBlockSizes[blockFlag];
+		final int n2 = n / 2;
+		boolean previousLong = true;
+		boolean nextLong = true;
+		if (blockFlag == 1) {
+			previousLong = br.readFlag();
+			nextLong = br.readFlag();
+		}
+		final int mapping = mModeMapping[mode];
+		final int[] mux = mMappingMux[mapping];
+		final int channels = mChannels;
+
+		// Floors
+		for (int c = 0; c < channels; c++) {
+			final Floor1 floor = mFloors[mMappingFloor[mapping][mux[c]]];
+			mFloorUsed[c] = floor.decode(br, mCodebooks, mFloorY[c]);
+			mNonzero[c] = mFloorUsed[c];
+		}
+		final int[] magnitudes = mMappingMagnitude[mapping];
+		final int[] angles = mMappingAngle[mapping];
+		for (int i = 0; i < magnitudes.length; i++)
+			if (mNonzero[magnitudes[i]] || mNonzero[angles[i]])
+				mNonzero[magnitudes[i]] = mNonzero[angles[i]] = true;
+
+		// Residues
+		for (int c = 0; c < channels; c++)
+			Arrays.fill(mResidue[c], 0, n2, 0);
+		for (int submap = 0; submap < mMappingSubmaps[mapping]; submap++) {
+			int count = 0;
+			for (int c = 0; c < channels; c++) {
+				if (mux[c] == submap) {
+					mSubmapVectors[count] = mResidue[c];
+					mSubmapSkip[count] = !mNonzero[c];
+					count++;
+				}
+			}
+			mResidues[mMappingResidue[mapping][submap]].decode(br, mCodebooks,
+					mSubmapVectors, mSubmapSkip, count, n2);
+		}
+
+		// Inverse coupling
+		for (int i = magnitudes.length - 1; i >= 0; i--) {
+			final float[] m = mResidue[magnitudes[i]];
+			final float[] a = mResidue[angles[i]];
+			for (int j = 0; j < n2; j++) {
+				final float mj = m[j];
+				final float aj = a[j];
+				if (mj > 0) {
+					if (aj > 0) {
+						a[j] = mj - aj;
+					} else {
+						a[j] = mj;
+						m[j] = mj + aj;
+					}
+				} else {
+					if (aj > 0) {
+						a[j] = mj + aj;
+					} else {
+						a[j] = mj;
+						m[j] = mj - aj;
+					}
+				}
+			}
+		}
+
+		// Floor curves, inverse MDCT and window
+		final int n0 = mBlockSizes[0];
+		final int leftStart, leftEnd, rightStart, rightEnd;
+		final float[] leftSlope, rightSlope;
+		if (blockFlag == 1 && !previousLong) {
+			leftStart = n / 4 - n0 / 4;
+			leftEnd = n / 4 + n0 / 4;
+			leftSlope = mSlopes[0];
+		} else {
+			leftStart = 0;
+			leftEnd = n2;
+			leftSlope = mSlopes[blockFlag];
+		}
+		if (blockFlag == 1 && !nextLong) {
+			rightStart = n * 3 / 4 - n0 / 4;
+			rightEnd = n * 3 / 4 + n0 / 4;
+			rightSlope = mSlopes[0];
+		} else {
+			rightStart = n2;
+			rightEnd = n;
+			rightSlope = mSlopes[blockFlag];
+		}
+
+		for (int c = 0; c < channels; c++) {
+			final float[] block = mBlock[c];
+			if (mFloorUsed[c]) {
+				final Floor1 floor = mFloors[mMappingFloor[mapping][mux[c]]];
+				floor.apply(mFloorY[c], mStep2, mResidue[c], n2);
+				mMdct[blockFlag].inverse(mResidue[c], block);
+			} else {
+				Arrays.fill(block, 0, n, 0);
+			}
+
+			for (int i = 0; i < leftStart; i++)
+				block[i] = 0;
+			for (int i = leftStart; i < leftEnd; i++)
+				block[i] *= leftSlope[i - leftStart];
+			final int rightLength = rightEnd - rightStart;
+			for (int i = rightStart; i < rightEnd; i++)
+				block[i] *= rightSlope[rightLength - 1 - (i - rightStart)];
+			for (int i = rightEnd; i < n; i++)
+				block[i] = 0;
+		}
+
+		// Overlap and add from the center of the previous block to the center
+		// of this one. The first block only fills the overlap.
+		final int previousN = mPreviousN;
+		final int frames = previousN == 0 ? 0 : previousN / 4 + n / 4;
+		for (int c = 0; c < channels; c++) {
+			final float[] block = mBlock[c];
+			final float[] overlap = mOverlap[c];
+			final float[] pcm = mPcm[c];
+			final int shift = n / 4 - previousN / 4;
+			final int previousHalf = previousN / 2;
+			for (int t = 0; t < frames; t++) {
+				float sample = 0;
+				if (t < previousHalf)
+					sample = overlap[t];
+				final int i = t + shift;
+				if (i >= 0)
+					sample += block[i];
+				pcm[t] = sample;
+			}
+			System.arraycopy(block, n2, overlap, 0, n2);
+		}
+		mPreviousN = n;
+		return frames;
+	}
+}